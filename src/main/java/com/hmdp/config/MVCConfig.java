@@ -1,19 +1,37 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.RateLimiter;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokenService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Arrays;
 
 @Configuration
 public class MVCConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
+
+    @Resource
+    private SignedTokenService signedTokenService;
+
+    @Resource
+    private RateLimiter rateLimiter;
+
+    @Value("${hmdp.rate-limit.trusted-proxies:}")
+    private String[] trustedProxies;
+
+    @Value("${hmdp.admin.token:}")
+    private String adminToken;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -24,11 +42,21 @@ public class MVCConfig implements WebMvcConfigurer {
                         "/blog/hot",
                         "/shop/**",
                         "/shop-type/**",
-                        "/voucher/**"
+                        "/voucher/**",
+                        "/voucher-order/consumer/state",
+                        "/admin/**"
                 )
                 .order(1);
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+        // 管理接口不使用用户登录，由管理令牌鉴权
+        registry.addInterceptor(new AdminInterceptor(adminToken))
+                .addPathPatterns("/admin/**")
+                .order(1);
+        registry.addInterceptor(new RefreshTokenInterceptor(loginSessionCache, signedTokenService))
                 .addPathPatterns("/**")
                 .order(0);
+        // 在登录拦截之后执行，按用户限流时可以取得登录用户
+        registry.addInterceptor(new RateLimitInterceptor(rateLimiter, Arrays.asList(trustedProxies)))
+                .addPathPatterns("/**")
+                .order(2);
     }
 }
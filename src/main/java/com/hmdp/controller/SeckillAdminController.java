@@ -0,0 +1,34 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.SeckillStockWarmUp;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+/**
+ * 秒杀运维接口，由 AdminInterceptor 校验 X-Admin-Token
+ */
+@RestController
+@RequestMapping("/admin/seckill")
+public class SeckillAdminController {
+
+    @Resource
+    private SeckillStockWarmUp seckillStockWarmUp;
+
+    /**
+     * 从数据库重建 Redis 中的秒杀库存与已下单用户集合
+     * @param overwrite 是否以数据库库存覆盖 Redis 中已存在的库存。MySQL 中的库存落后于订单消息队列的消费进度，
+     *                  只有在订单消息队列已经消费完（没有未读与 pending 消息）且暂停秒杀时才能使用，否则会超卖
+     * @return 预热的秒杀券数量、订单数量与耗时
+     */
+    @PostMapping("warm-up")
+    public Result warmUpSeckillStock(@RequestParam(value = "overwrite", defaultValue = "false") Boolean overwrite) {
+        try {
+            return Result.ok(seckillStockWarmUp.warmUp(overwrite));
+        } catch (IllegalStateException e) {
+            return Result.fail(e.getMessage());
+        }
+    }
+}
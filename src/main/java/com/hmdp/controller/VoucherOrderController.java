@@ -3,12 +3,17 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import com.hmdp.utils.RateLimit;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.SeckillOrderConsumer;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillOrderStreamTrimmer;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * <p>
@@ -24,8 +29,69 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillOrderConsumer seckillOrderConsumer;
+
+    @Resource
+    private SeckillOrderStreamTrimmer seckillOrderStreamTrimmer;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private RateLimiter rateLimiter;
+
     @PostMapping("seckill/{id}")
+    @RateLimit(name = "seckill-user", key = RateLimit.KeyType.USER, capacity = 5, rate = 1)
+    @RateLimit(name = "seckill-ip", key = RateLimit.KeyType.IP, capacity = 50, rate = 20)
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.secKillVoucher(voucherId);
     }
+
+    /**
+     * 查询当前用户的秒杀订单的处理结果：PENDING 处理中，CREATED 已创建，FAILED 失败，DUPLICATE 重复下单未创建，
+     * UNKNOWN 结果已过期或订单不存在。其他用户的订单按不存在处理
+     * @param wait 订单处理中时最长等待的毫秒数，为 0 时立即返回
+     */
+    @GetMapping("{id}/status")
+    public DeferredResult<Result> orderStatus(@PathVariable("id") Long orderId,
+                                              @RequestParam(value = "wait", defaultValue = "0") Long wait) {
+        return seckillOrderStatus.await(orderId, UserHolder.getUser().getId(), wait);
+    }
+
+    /**
+     * 查询秒杀订单消费者的吞吐量与积压情况
+     */
+    @GetMapping("consumer/stats")
+    public Result consumerStats() {
+        return Result.ok(seckillOrderConsumer.stats());
+    }
+
+    /**
+     * 秒杀订单消费者状态，供就绪探针使用：停止中或已停止时返回 503
+     */
+    @GetMapping("consumer/state")
+    public Result consumerState(HttpServletResponse response) {
+        SeckillOrderConsumer.State state = seckillOrderConsumer.state();
+        if (!seckillOrderConsumer.isRunning()) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        return Result.ok(state);
+    }
+
+    /**
+     * 查询各限流规则的配置与放行、拒绝次数
+     */
+    @GetMapping("rate-limit/stats")
+    public Result rateLimitStats() {
+        return Result.ok(rateLimiter.stats());
+    }
+
+    /**
+     * 查询订单消息队列的长度与修剪情况
+     */
+    @GetMapping("stream/stats")
+    public Result streamStats() {
+        return Result.ok(seckillOrderStreamTrimmer.stats());
+    }
 }
@@ -3,9 +3,11 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -20,4 +22,15 @@ public interface IUserService extends IService<User> {
     Result sendCode(String phone, HttpSession session);
 
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    /**
+     * 登出，删除 token 对应的会话（签名令牌则吊销），并清除所有实例的本地会话缓存
+     */
+    Result logout(String token);
+
+    /**
+     * 按 id 批量查询用户信息（经过缓存）
+     * @return 与 ids 顺序一致的结果，不存在的用户为 null
+     */
+    List<UserDTO> queryUserDTOs(List<Long> ids);
 }
@@ -3,6 +3,10 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.utils.SeckillOrderStatus.Status;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -18,5 +22,9 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result createVoucherOrder(Long voucherId);
 
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    Status createVoucherOrder(VoucherOrder voucherOrder);
+
+    Map<Long, Status> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    Map<Long, Status> handleVoucherOrders(List<VoucherOrder> voucherOrders);
 }
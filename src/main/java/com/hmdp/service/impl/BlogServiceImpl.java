@@ -84,11 +84,18 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog-> {
-            this.queryBlogUser(blog);
+        // 批量查询用户
+        List<Long> userIds = records.stream().map(Blog::getUserId).collect(Collectors.toList());
+        List<UserDTO> users = userService.queryUserDTOs(userIds);
+        for (int i = 0; i < records.size(); i++) {
+            Blog blog = records.get(i);
+            UserDTO user = users.get(i);
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
             this.isBlogLiked(blog);
-        });
+        }
         return Result.ok(records);
     }
 
@@ -6,10 +6,17 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ShopChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import java.util.concurrent.TimeUnit;
@@ -24,6 +31,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -33,6 +41,36 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    // 商铺更新后的缓存处理方式：delete（事务提交后延迟双删）/ refresh（事务提交后原地刷新逻辑过期缓存）
+    @Value("${hmdp.cache.shop.invalidation:delete}")
+    private String invalidationMode;
+
+    @Value("${hmdp.cache.local.shop.enabled:true}")
+    private boolean localCacheEnabled;
+
+    @Value("${hmdp.cache.local.shop.max-size:10000}")
+    private int localCacheMaxSize;
+
+    @Value("${hmdp.cache.local.shop.ttl-seconds:30}")
+    private long localCacheTtlSeconds;
+
+    @Value("${hmdp.cache.expiry.shop.jitter:0.2}")
+    private double ttlJitter;
+
+    @Value("${hmdp.cache.expiry.shop.refresh-ahead:0.1}")
+    private double refreshAhead;
+
+    @PostConstruct
+    private void init() {
+        cacheClient.setExpiryPolicy(CACHE_SHOP_KEY, ttlJitter, refreshAhead);
+        if (localCacheEnabled) {
+            cacheClient.enableLocalCache(CACHE_SHOP_KEY, localCacheMaxSize, localCacheTtlSeconds, TimeUnit.SECONDS);
+        }
+    }
+
     /*
     private void saveShop(Long id, Long expireSeconds) {
         Shop shop = getById(id);
@@ -198,9 +236,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    // 新增，新商铺的 id 需要加入布隆过滤器，否则查询时会被拦截
+    @Override
+    public boolean save(Shop shop) {
+        boolean success = super.save(shop);
+        if (success) {
+            cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        }
+        return success;
+    }
+
     // 更新
     @Override
-    @Transactional(rollbackFor = Exception.class) // 确保更新数据库和 Redis 是一个事务
+    @Transactional(rollbackFor = Exception.class)
     public Result update(Shop shop) {
         Long id = shop.getId();
         if (id == null) {
@@ -208,8 +256,36 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 更新数据库
         updateById(shop);
-        // 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        if (isRefreshMode()) {
+            // 事务提交后由 onShopChanged 原地刷新缓存
+            applicationEventPublisher.publishEvent(new ShopChangedEvent(id));
+        } else {
+            // 事务提交后删除缓存（同时删除所有实例的本地缓存），并延迟再删除一次
+            cacheClient.deleteAfterCommit(CACHE_SHOP_KEY + id);
+        }
         return Result.ok();
     }
+
+    private boolean isRefreshMode() {
+        return "refresh".equalsIgnoreCase(invalidationMode);
+    }
+
+    // 事务提交后从数据库读取最新数据，原地覆盖逻辑过期缓存，而不是删除缓存
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onShopChanged(ShopChangedEvent event) {
+        String key = CACHE_SHOP_KEY + event.getId();
+        try {
+            Shop shop = getById(event.getId());
+            if (shop == null) {
+                cacheClient.delete(key);
+                return;
+            }
+            cacheClient.setWithLogicalExpire(key, shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            cacheClient.invalidateLocal(key);
+        } catch (Exception e) {
+            // 刷新失败时退回到删除缓存，避免长期保留旧数据
+            log.error("刷新商铺缓存 {} 失败", key, e);
+            cacheClient.delete(key);
+        }
+    }
 }
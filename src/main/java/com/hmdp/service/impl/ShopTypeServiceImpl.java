@@ -6,12 +6,16 @@ import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
 
@@ -29,25 +33,52 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.local.shop-type.enabled:true}")
+    private boolean localCacheEnabled;
+
+    @Value("${hmdp.cache.local.shop-type.max-size:1}")
+    private int localCacheMaxSize;
+
+    @Value("${hmdp.cache.local.shop-type.ttl-seconds:300}")
+    private long localCacheTtlSeconds;
+
+    @PostConstruct
+    private void init() {
+        if (localCacheEnabled) {
+            cacheClient.enableLocalCache(CACHE_SHOP_TYPE_KEY, localCacheMaxSize, localCacheTtlSeconds, TimeUnit.SECONDS);
+        }
+    }
+
     @Override
     public Result queryTypeList() {
+        List<ShopType> shopTypeList = cacheClient.queryWithLocal(CACHE_SHOP_TYPE_KEY, this::queryTypeListFromCache);
+        if(shopTypeList == null || shopTypeList.isEmpty()){
+            return Result.fail("Can't find shop type");
+        }
+        return Result.ok(shopTypeList);
+    }
+
+    private List<ShopType> queryTypeListFromCache() {
         List<String> typeList = stringRedisTemplate.opsForList().range(CACHE_SHOP_TYPE_KEY, 0, -1);
         List<ShopType> shopTypeList = new ArrayList<>();
         if(typeList != null && !typeList.isEmpty()){
             for(String type : typeList){
                 shopTypeList.add(JSONUtil.toBean(type, ShopType.class));
             }
-            return Result.ok(shopTypeList);
+            return shopTypeList;
         }
         shopTypeList = query().orderByAsc("sort").list();
         if(shopTypeList == null || shopTypeList.isEmpty()){
-            return Result.fail("Can't find shop type");
+            return null;
         }
         List<String> list = new ArrayList<>();
         for(ShopType shopType : shopTypeList){
             list.add(JSONUtil.toJsonStr(shopType));
         }
         stringRedisTemplate.opsForList().rightPushAll(CACHE_SHOP_TYPE_KEY, list);
-        return Result.ok(shopTypeList);
+        return shopTypeList;
     }
 }
@@ -1,9 +1,9 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -11,16 +11,25 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginSessionCache;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignedTokenService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -39,6 +48,47 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private SignedTokenService signedTokenService;
+
+    @Resource
+    private LoginSessionCache loginSessionCache;
+
+    @Value("${hmdp.cache.local.user.enabled:true}")
+    private boolean localCacheEnabled;
+
+    @Value("${hmdp.cache.local.user.max-size:10000}")
+    private int localCacheMaxSize;
+
+    @Value("${hmdp.cache.local.user.ttl-seconds:60}")
+    private long localCacheTtlSeconds;
+
+    @Value("${hmdp.cache.expiry.user.jitter:0.2}")
+    private double ttlJitter;
+
+    @Value("${hmdp.cache.expiry.user.refresh-ahead:0}")
+    private double refreshAhead;
+
+    @PostConstruct
+    private void init() {
+        cacheClient.setExpiryPolicy(CACHE_USER_KEY, ttlJitter, refreshAhead);
+        if (localCacheEnabled) {
+            cacheClient.enableLocalCache(CACHE_USER_KEY, localCacheMaxSize, localCacheTtlSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public List<UserDTO> queryUserDTOs(List<Long> ids) {
+        return cacheClient.queryBatch(
+                CACHE_USER_KEY, ids, CACHE_USER_TTL, TimeUnit.MINUTES, UserDTO.class,
+                missIds -> listByIds(missIds).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class)))
+        );
+    }
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 校验手机号
@@ -69,11 +119,15 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if(cacheCode == null || !cacheCode.equals(code)) {
             return Result.fail("Invalid phone or code");
         }
-        // 查询用户，判断用户给是否存在
-        User user = query().eq("phone", phone).one();
-        if(user == null) {
+        // 查询用户，判断用户给是否存在（手机号到用户的映射经过缓存）
+        UserDTO userDTO = queryUserDTOByPhone(phone);
+        if(userDTO == null) {
             // 用户不存在，进行注册
-            user = this.signUp(phone);
+            userDTO = BeanUtil.copyProperties(this.signUp(phone), UserDTO.class);
+        }
+        if (signedTokenService.isEnabled()) {
+            // 签名令牌模式，令牌本身携带用户信息，无需写入 Redis
+            return Result.ok(signedTokenService.issue(userDTO));
         }
         // 用户存在，进行登录（保存用户到session/Redis）
         // 使用 Redis
@@ -81,14 +135,49 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         String token = UUID.randomUUID().toString(true);
         // User 对象所为 Hash 存储
         // session.setAttribute("user", BeanUtil.copyProperties(user, UserDTO.class));
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY + token, userMap);
-        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        Map<String, String> userMap = new HashMap<>(4);
+        userMap.put("id", userDTO.getId().toString());
+        if (userDTO.getNickName() != null) {
+            userMap.put("nickName", userDTO.getNickName());
+        }
+        if (userDTO.getIcon() != null) {
+            userMap.put("icon", userDTO.getIcon());
+        }
+        // 会话与有效期在一次 pipeline 中写入
+        String key = LOGIN_USER_KEY + token;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(key, userMap);
+            conn.expire(key, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+            return null;
+        });
         // 返回 token
+        return Result.ok(token);
+    }
+
+    private UserDTO queryUserDTOByPhone(String phone) {
+        return cacheClient.queryWithMutex(
+                CACHE_PHONE_KEY, phone, CACHE_USER_TTL, TimeUnit.MINUTES, UserDTO.class,
+                p -> {
+                    User user = query().eq("phone", p).one();
+                    return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+                }
+        );
+    }
+
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isBlank(token)) {
+            return Result.ok();
+        }
+        if (signedTokenService.isSigned(token)) {
+            // 签名令牌无法删除，加入吊销集合直到令牌过期
+            signedTokenService.revoke(token);
+        } else {
+            // 删除会话，并清除所有实例的本地会话缓存
+            stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+            loginSessionCache.invalidate(token);
+        }
         return Result.ok();
     }
 
@@ -99,6 +188,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setPassword(USER_NICK_NAME_PREFIX + RandomUtil.randomNumbers(6));
         // 保存用户
         save(user);
+        cacheClient.addToBloomFilter(CACHE_USER_KEY, user.getId());
+        // 删除手机号缓存中的空值，包括 Redis、所有实例的本地缓存与热点固定的缓存，下次查询从数据库重建
+        cacheClient.deleteAfterCommit(CACHE_PHONE_KEY + phone);
         return user;
     }
 }
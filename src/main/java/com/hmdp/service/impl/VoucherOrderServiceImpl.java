@@ -1,20 +1,24 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SecKillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIDGenerator;
+import com.hmdp.utils.SeckillOrderStatus.Status;
+import com.hmdp.utils.SeckillSoldOutFlag;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillVoucherLocalCache;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
@@ -22,12 +26,14 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -47,12 +53,28 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedisIDGenerator redisIDGenerator;
 
+    @Resource
+    private SeckillSoldOutFlag seckillSoldOutFlag;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private SeckillVoucherLocalCache seckillVoucherLocalCache;
+
     // 静态代码块加载 lua 脚本
-    private static final DefaultRedisScript<Long> SEC_KILL_SCRIPT;
+    // 脚本返回 {结果码, 订单序列号}
+    private static final DefaultRedisScript<List<Long>> SEC_KILL_SCRIPT;
+    private static final DefaultRedisScript<List<Long>> SEC_KILL_SHARD_SCRIPT;
     static {
         SEC_KILL_SCRIPT = new DefaultRedisScript<>();
         SEC_KILL_SCRIPT.setLocation(new ClassPathResource("secKill.lua"));
-        SEC_KILL_SCRIPT.setResultType(Long.class);
+        @SuppressWarnings("unchecked")
+        Class<List<Long>> resultType = (Class<List<Long>>) (Class<?>) List.class;
+        SEC_KILL_SCRIPT.setResultType(resultType);
+        SEC_KILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SEC_KILL_SHARD_SCRIPT.setLocation(new ClassPathResource("secKillShard.lua"));
+        SEC_KILL_SHARD_SCRIPT.setResultType(resultType);
     }
 
     @Resource
@@ -61,12 +83,43 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
-    private final ExecutorService SEC_KILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-    IVoucherOrderService proxy;
+    // 一人一单的保证方式：lock - 每个订单加 Redisson 锁并查询是否已下单；unique-index - 依赖 (user_id, voucher_id) 唯一索引，INSERT IGNORE 幂等写入
+    @Value("${hmdp.seckill.order.consistency:lock}")
+    private String consistency;
+
+    // 等待订单锁的最长时间
+    @Value("${hmdp.seckill.order.lock-wait-millis:3000}")
+    private long lockWaitMillis;
+
+    private boolean isUniqueIndexMode() {
+        return "unique-index".equals(consistency);
+    }
 
+    @Resource
+    private DataSource dataSource;
+
+    // 唯一索引模式依赖 (user_id, voucher_id) 唯一索引，缺少时 INSERT IGNORE 不会忽略重复订单，一人一单失效，因此启动时检查
     @PostConstruct
-    private void init() {
-        SEC_KILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    private void checkUniqueIndex() throws SQLException {
+        if (!isUniqueIndexMode()) {
+            return;
+        }
+        Map<String, Set<String>> uniqueIndexes = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             ResultSet rs = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, "tb_voucher_order", true, false)) {
+            while (rs.next()) {
+                String indexName = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (indexName != null && column != null) {
+                    uniqueIndexes.computeIfAbsent(indexName, k -> new HashSet<>()).add(column.toLowerCase());
+                }
+            }
+        }
+        Set<String> expected = new HashSet<>(Arrays.asList("user_id", "voucher_id"));
+        if (!uniqueIndexes.containsValue(expected)) {
+            throw new IllegalStateException("hmdp.seckill.order.consistency=unique-index 需要 tb_voucher_order (user_id, voucher_id) 唯一索引，"
+                    + "请先执行 db/migration/add_uk_user_voucher.sql");
+        }
     }
 
     /*
@@ -85,79 +138,99 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }
      */
-    private class VoucherOrderHandler implements Runnable {
-        private static final String queueName = "stream.orders";
-        @Override
-        public void run() {
-            while(true) {
-                try {
-                    // XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-                    if(list == null || list.isEmpty()) {
-                        continue;
-                    }
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder order = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    handleVoucherOrder(order);
-                    // ACK 确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    handlePendingList();
-                }
+
+    // 由 SeckillOrderConsumer 批量调用，返回处理完成（可以 ACK）的订单 id 及其结果，未包含的订单留待重试
+    @Override
+    public Map<Long, Status> handleVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 此方法通过代理对象调用，因此可以在消费者线程中获取代理对象，保证 createVoucherOrder 的事务生效
+        IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
+        // 优先整批写入数据库
+        try {
+            Map<Long, Status> results = createVoucherOrdersLocked(voucherOrders, proxy);
+            if (results != null) {
+                return results;
             }
+            log.warn("获取批量订单锁超时，逐条处理，共 {} 条", voucherOrders.size());
+        } catch (Exception e) {
+            log.warn("批量创建订单失败，逐条重试，共 {} 条", voucherOrders.size(), e);
         }
-
-        private void handlePendingList() {
-            while(true) {
-                try {
-                    // XREADGROUP GROUP g1 c1 COUNT 1 STREAMS stream.orders 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create("stream.orders", ReadOffset.from("0"))
-                    );
-                    if(list == null || list.isEmpty()) {
-                        break;
-                    }
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder order = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    handleVoucherOrder(order);
-                    // ACK 确认
-                    stringRedisTemplate.opsForStream().acknowledge("stream.orders", "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                }
+        // 整批失败时逐条处理
+        Map<Long, Status> results = new LinkedHashMap<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            try {
+                results.put(voucherOrder.getId(), handleVoucherOrder(voucherOrder, proxy));
+            } catch (Exception e) {
+                log.error("处理订单 {} 异常", voucherOrder.getId(), e);
             }
         }
+        return results;
+    }
+
+    // lock 模式下整批写入前获取批内所有 用户 + 优惠券 的锁（MultiLock），与逐条处理使用相同的锁，
+    // 保证不同消费者的批次不会同时为同一用户写入同一优惠券的订单；事务提交后才释放锁。获取锁超时返回 null
+    private Map<Long, Status> createVoucherOrdersLocked(List<VoucherOrder> voucherOrders, IVoucherOrderService proxy) {
+        if (isUniqueIndexMode()) {
+            return proxy.createVoucherOrders(voucherOrders);
+        }
+        // 按 key 排序后加锁，减少不同批次互相等待
+        RLock[] locks = voucherOrders.stream()
+                .map(order -> orderLockKey(order.getUserId(), order.getVoucherId()))
+                .distinct()
+                .sorted()
+                .map(redissonClient::getLock)
+                .toArray(RLock[]::new);
+        RLock lock = redissonClient.getMultiLock(locks);
+        boolean isLocked;
+        try {
+            isLocked = lock.tryLock(lockWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("获取批量订单锁时被中断", e);
+        }
+        if (!isLocked) {
+            return null;
+        }
+        try {
+            return proxy.createVoucherOrders(voucherOrders);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String orderLockKey(Long userId, Long voucherId) {
+        return "lock:order:" + userId + ":" + voucherId;
     }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
+    private Status handleVoucherOrder(VoucherOrder voucherOrder, IVoucherOrderService proxy) {
+        // 唯一索引模式下无需加锁，重复订单由数据库忽略
+        if (isUniqueIndexMode()) {
+            return proxy.createVoucherOrder(voucherOrder);
+        }
         // 获取用户 id。注意此时是一个新的线程，因此不能从 UserHolder 中获得 UserId。
         Long userId = voucherOrder.getUserId();
         // 创建锁对象
         // SimpleRedisLock lock = new SimpleRedisLock("order:"+userId, stringRedisTemplate);
-        RLock lock = redissonClient.getLock("lock:order:" + userId); // 使用 Redisson
-        // 获取锁
+        // 多个消费者可能同时处理同一用户的不同优惠券订单，锁按 用户 + 优惠券 区分
+        RLock lock = redissonClient.getLock(orderLockKey(userId, voucherOrder.getVoucherId())); // 使用 Redisson
+        // 获取锁，限时等待正在处理同一订单的消费者
         // boolean isLocked = lock.tryLock(5L);
-        boolean isLocked = lock.tryLock();
+        boolean isLocked;
+        try {
+            isLocked = lock.tryLock(lockWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("获取订单锁时被中断，订单 " + voucherOrder.getId(), e);
+        }
         if(!isLocked) {
-            log.error("禁止重复下单");
-            return;
+            // 抛出异常使消息留在 pending 列表中稍后重试，不能直接确认
+            throw new IllegalStateException("获取订单锁超时，订单 " + voucherOrder.getId());
         }
         try {
-            // 注意，此时是子线程，因此无法获取代理对象，所以我们在主线程中提前获取代理对象，并存放在类中。
-            // 获取当前代理对象
+            // 注意，此时是子线程，代理对象由 handleVoucherOrders 获取后传入。
             // IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
             // return proxy.createVoucherOrder(voucherId);
             // 注意我们将 createVoucherOrder进行了重写，因为创建订单的过程在主线程（secKillVoucher方法）中已经完成
-            proxy.createVoucherOrder(voucherOrder);
+            return proxy.createVoucherOrder(voucherOrder);
         } finally {
             lock.unlock();
         }
@@ -233,30 +306,118 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result secKillVoucher(Long voucherId) {
-        // 获取用户 id 与订单 id
+        // 本地已标记售罄，直接拒绝，无需访问 Redis
+        if (seckillSoldOutFlag.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 本地校验秒杀券是否存在、秒杀是否开始与是否结束
+        SecKillVoucher voucher = seckillVoucherLocalCache.get(voucherId);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.getBeginTime().isAfter(now)) {
+            return Result.fail("秒杀尚未开始");
+        }
+        if (!voucher.getEndTime().isAfter(now)) {
+            return Result.fail("秒杀已经结束");
+        }
+        if (seckillVoucherLocalCache.isStockMissing(voucherId)) {
+            return Result.fail("秒杀库存未加载，请稍后重试");
+        }
+        // 获取用户 id 与用户所属的库存分片
         Long userId = UserHolder.getUser().getId();
-        Long orderId = redisIDGenerator.nextID("order");
-        // 执行 Lua 脚本
-        Long result = stringRedisTemplate.execute(
+        int homeShard = seckillStockShards.homeShard(userId);
+        // 执行 Lua 脚本，获得资格后在脚本中分配订单 id 的序列号；
+        // 号段模式下在本地预先分配订单 id，脚本直接使用其序列号（未获得资格时该 id 作废）
+        long timestamp = RedisIDGenerator.timestamp(now);
+        long seq = -1;
+        if (redisIDGenerator.isSegmentEnabled()) {
+            long orderId = redisIDGenerator.nextID("order");
+            timestamp = RedisIDGenerator.timestampOf(orderId);
+            seq = RedisIDGenerator.sequenceOf(orderId);
+        }
+        List<Long> result = stringRedisTemplate.execute(
                 SEC_KILL_SCRIPT,
-                Collections.emptyList(),
+                Arrays.asList(
+                        seckillStockShards.stockKey(voucherId, homeShard),
+                        seckillStockShards.orderKey(voucherId, homeShard),
+                        seckillStockShards.streamKey(homeShard),
+                        seckillStockShards.counterKey(homeShard, now)
+                ),
                 voucherId.toString(),
                 userId.toString(),
-                orderId.toString()
+                String.valueOf(timestamp),
+                String.valueOf(seckillStockShards.shards()),
+                String.valueOf(homeShard),
+                seckillStockShards.isSharded() ? "1" : "0",
+                String.valueOf(seq),
+                String.valueOf(RedisIDGenerator.SCRIPT_SEQUENCE_BASE)
         );
         // 判断结果是否为0
-        if (result == null) {
+        if (result == null || result.isEmpty()) {
             return Result.fail("错误，请重试");
         }
-        if(result != 0) {
+        long code = result.get(0);
+        if (code == 4) {
+            // Redis 中没有库存 key
+            seckillVoucherLocalCache.markStockMissing(voucherId);
+            return Result.fail("秒杀库存未加载，请稍后重试");
+        }
+        seckillVoucherLocalCache.markStockLoaded(voucherId);
+        if (code == 3) {
+            // 所属分片库存不足且已占位，尝试从其他分片扣减库存
+            result = secKillFromSiblingShards(voucherId, userId, homeShard, now, timestamp, seq);
+            code = result.get(0);
+        }
+        if(code != 0) {
             // 非0，没有购买资格
-            return Result.fail(result == 1 ? "库存不足" : "禁止重复下单");
+            if (code == 1) {
+                seckillSoldOutFlag.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            }
+            return Result.fail("禁止重复下单");
         }
         // 为0，可以购买
-        // 获取当前代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
         // 返回订单 id
-        return Result.ok(orderId);
+        return Result.ok(RedisIDGenerator.compose(timestamp, result.get(1)));
+    }
+
+    // 依次尝试其他分片，全部库存不足时释放在所属分片中的占位
+    private List<Long> secKillFromSiblingShards(
+            Long voucherId, Long userId, int homeShard, LocalDateTime now, long timestamp, long seq
+    ) {
+        int shards = seckillStockShards.shards();
+        boolean success = false;
+        try {
+            for (int i = 1; i < shards; i++) {
+                int shard = (homeShard + i) % shards;
+                List<Long> result = stringRedisTemplate.execute(
+                        SEC_KILL_SHARD_SCRIPT,
+                        Arrays.asList(
+                                seckillStockShards.stockKey(voucherId, shard),
+                                seckillStockShards.streamKey(shard),
+                                seckillStockShards.counterKey(shard, now)
+                        ),
+                        voucherId.toString(),
+                        userId.toString(),
+                        String.valueOf(timestamp),
+                        String.valueOf(shards),
+                        String.valueOf(shard),
+                        String.valueOf(seq),
+                        String.valueOf(RedisIDGenerator.SCRIPT_SEQUENCE_BASE)
+                );
+                if (result != null && !result.isEmpty() && result.get(0) == 0) {
+                    success = true;
+                    return result;
+                }
+            }
+            return Collections.singletonList(1L);
+        } finally {
+            if (!success) {
+                stringRedisTemplate.opsForSet().remove(seckillStockShards.orderKey(voucherId, homeShard), userId.toString());
+            }
+        }
     }
 
     // 一人一单
@@ -288,30 +449,149 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         return Result.ok(orderId);
     }
 
-    // 一人一单
+    // 批量创建订单：按优惠券分组，每种优惠券一次扣减库存，整批一次插入。
+    // 返回每个订单的结果，库存不足的订单为 FAILED：库存不足是确定的业务结果，不抛出异常，否则消息会被反复重试直到转入死信队列
     @Override
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 一人一单判断
-        Long userId = UserHolder.getUser().getId();
-        Integer i = query()
-                .eq("user_id", userId)
-                .eq("voucher_id", voucherOrder.getVoucherId())
-                .count();
-        if (i > 0) {
-            log.error("禁止重复下单");
-            return ;
+    @Transactional
+    public Map<Long, Status> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Map<Long, Status> results = new LinkedHashMap<>(voucherOrders.size());
+        Map<Long, List<VoucherOrder>> ordersByVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        if (isUniqueIndexMode()) {
+            ordersByVoucher.forEach((voucherId, orders) -> createVoucherOrdersIgnoreDuplicate(voucherId, orders, results));
+            return results;
         }
-        // 扣减库存，创建订单
+        List<VoucherOrder> toInsert = new ArrayList<>(voucherOrders.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersByVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            // 一人一单判断：Lua 脚本已经保证了一人一单，这里过滤掉数据库中已存在以及同一批中重复的用户
+            Map<Long, Long> existingOrders = existingOrders(voucherId, entry.getValue());
+            Set<Long> orderedUserIds = new HashSet<>(existingOrders.keySet());
+            List<VoucherOrder> orders = new ArrayList<>();
+            for (VoucherOrder order : entry.getValue()) {
+                if (orderedUserIds.add(order.getUserId())) {
+                    orders.add(order);
+                } else {
+                    Status status = duplicateStatus(order, existingOrders);
+                    if (status == Status.DUPLICATE) {
+                        log.error("禁止重复下单，订单 {}", order.getId());
+                    }
+                    results.put(order.getId(), status);
+                }
+            }
+            if (orders.isEmpty()) {
+                continue;
+            }
+            // 库存不足时只为前 granted 个订单扣减库存
+            int granted = deductStock(voucherId, orders.size());
+            for (int i = 0; i < orders.size(); i++) {
+                VoucherOrder order = orders.get(i);
+                if (i < granted) {
+                    toInsert.add(order);
+                    results.put(order.getId(), Status.CREATED);
+                } else {
+                    log.error("库存不足，优惠券 {}，订单 {}", voucherId, order.getId());
+                    results.put(order.getId(), Status.FAILED);
+                }
+            }
+        }
+        // 写回数据库
+        if (!toInsert.isEmpty()) {
+            getBaseMapper().insertBatch(toInsert);
+        }
+        return results;
+    }
+
+    // 扣减 n 个库存，剩余库存不足 n 时扣减全部剩余库存，返回实际扣减的数量
+    private int deductStock(Long voucherId, int n) {
+        // UPDATE tb_seckill_voucher SET stock = stock - n WHERE voucher_id = ? AND stock >= n
         boolean success = secKillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherOrder.getVoucherId())
-                .gt("stock", 0)
+                .setSql("stock = stock - " + n)
+                .eq("voucher_id", voucherId)
+                .ge("stock", n)
                 .update();
-        if (!success) {
-            log.error("库存不足");
-            return ;
+        if (success) {
+            return n;
         }
-        // 写回数据库
-        save(voucherOrder);
+        int granted = Math.min(n, lockStock(voucherId));
+        if (granted > 0) {
+            secKillVoucherService.update()
+                    .setSql("stock = stock - " + granted)
+                    .eq("voucher_id", voucherId)
+                    .update();
+        }
+        return granted;
+    }
+
+    // SELECT stock ... FOR UPDATE，锁定库存行直到事务结束，返回剩余库存
+    private int lockStock(Long voucherId) {
+        SecKillVoucher voucher = secKillVoucherService.query()
+                .select("stock")
+                .eq("voucher_id", voucherId)
+                .last("FOR UPDATE")
+                .one();
+        return voucher == null || voucher.getStock() == null ? 0 : Math.max(voucher.getStock(), 0);
+    }
+
+    // 唯一索引模式：先锁定库存行得到剩余库存，库存充足时一次 INSERT IGNORE，按实际插入的行数扣减库存；
+    // 库存不足以覆盖整批时逐条插入直到库存用完，未插入的订单按数据库中的记录判断结果
+    private void createVoucherOrdersIgnoreDuplicate(Long voucherId, List<VoucherOrder> orders, Map<Long, Status> results) {
+        int available = lockStock(voucherId);
+        int inserted = 0;
+        if (available >= orders.size()) {
+            inserted = getBaseMapper().insertIgnoreBatch(orders);
+        } else {
+            for (VoucherOrder order : orders) {
+                if (inserted >= available) {
+                    break;
+                }
+                inserted += getBaseMapper().insertIgnoreBatch(Collections.singletonList(order));
+            }
+        }
+        if (inserted > 0) {
+            // 库存行已锁定且 inserted 不超过剩余库存，扣减一定成功
+            secKillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", voucherId)
+                    .update();
+        }
+        if (inserted == orders.size()) {
+            orders.forEach(order -> results.put(order.getId(), Status.CREATED));
+            return;
+        }
+        // 未插入的订单按数据库中该用户的订单判断：是本订单（重复投递）为 CREATED，是其他订单为 DUPLICATE，没有订单则因库存不足失败
+        Map<Long, Long> existingOrders = existingOrders(voucherId, orders);
+        for (VoucherOrder order : orders) {
+            if (existingOrders.containsKey(order.getUserId())) {
+                results.put(order.getId(), duplicateStatus(order, existingOrders));
+            } else {
+                log.error("库存不足，优惠券 {}，订单 {}", voucherId, order.getId());
+                results.put(order.getId(), Status.FAILED);
+            }
+        }
+    }
+
+    // 查询这些订单的用户在该优惠券下已有的订单：用户 id -> 订单 id
+    private Map<Long, Long> existingOrders(Long voucherId, List<VoucherOrder> orders) {
+        Set<Long> userIds = orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        return query()
+                .select("id", "user_id")
+                .eq("voucher_id", voucherId)
+                .in("user_id", userIds)
+                .list()
+                .stream()
+                .collect(Collectors.toMap(VoucherOrder::getUserId, VoucherOrder::getId, (a, b) -> a));
+    }
+
+    // 用户已有订单时：已有的就是本订单（消息重复投递）则订单已创建，否则是重复下单
+    private static Status duplicateStatus(VoucherOrder order, Map<Long, Long> existingOrders) {
+        return order.getId().equals(existingOrders.get(order.getUserId())) ? Status.CREATED : Status.DUPLICATE;
+    }
+
+    // 一人一单，返回订单的处理结果
+    @Override
+    @Transactional
+    public Status createVoucherOrder(VoucherOrder voucherOrder) {
+        return createVoucherOrders(Collections.singletonList(voucherOrder)).get(voucherOrder.getId());
     }
 }
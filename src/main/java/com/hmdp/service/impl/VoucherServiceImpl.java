@@ -7,6 +7,8 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SecKillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillVoucherLocalCache;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -14,8 +16,6 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -31,6 +31,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillStockShards seckillStockShards;
+    @Resource
+    private SeckillVoucherLocalCache seckillVoucherLocalCache;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -52,7 +56,12 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到 Redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存秒杀库存到 Redis，分片模式下将库存拆分到各个分片
+        int[] stocks = seckillStockShards.splitStock(voucher.getStock());
+        for (int i = 0; i < stocks.length; i++) {
+            stringRedisTemplate.opsForValue().set(seckillStockShards.stockKey(voucher.getId(), i), String.valueOf(stocks[i]));
+        }
+        // 保存秒杀券元数据到本地缓存
+        seckillVoucherLocalCache.put(seckillVoucher);
     }
 }
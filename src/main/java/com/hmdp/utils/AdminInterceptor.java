@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * 管理接口（/admin/**）鉴权：请求头 X-Admin-Token 必须与配置的 hmdp.admin.token 一致，未配置时拒绝所有管理接口
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+    private static final String HEADER = "X-Admin-Token";
+
+    private final byte[] token;
+
+    public AdminInterceptor(String token) {
+        this.token = StrUtil.isBlank(token) ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String header = request.getHeader(HEADER);
+        // 常量时间比较，避免按响应时间逐字节猜测
+        if (token == null || header == null
+                || !MessageDigest.isEqual(token, header.getBytes(StandardCharsets.UTF_8))) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return false;
+        }
+        return true;
+    }
+}
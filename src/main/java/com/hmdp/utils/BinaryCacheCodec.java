@@ -0,0 +1,231 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 二进制编解码：固定长度的头部（魔数、类型编号、逻辑过期时间）加上按字段顺序写入的数据，
+ * 不写字段名，读取时无需解析 JSON。Shop、ShopType、UserDTO 使用手写的字段顺序，其他类型的数据部分仍为 JSON。
+ * 首字节不是魔数的值按 JSON 格式解析，兼容切换编码前写入的缓存。
+ * 注意：为这些类型增删字段时需要同时修改这里的读写顺序，并修改类型编号使旧的缓存失效。
+ */
+public class BinaryCacheCodec implements CacheCodec {
+    private static final byte MAGIC = (byte) 0xB1;
+    private static final byte TYPE_JSON = 0;
+    private static final long NO_EXPIRE = Long.MIN_VALUE;
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+    private final Map<Class<?>, Schema<?>> schemas = new HashMap<>();
+    private final Map<Class<?>, Byte> tags = new HashMap<>();
+    private final Map<Byte, Schema<?>> schemasByTag = new HashMap<>();
+
+    private interface Schema<T> {
+        void write(DataOutputStream out, T value) throws IOException;
+
+        T read(DataInputStream in) throws IOException;
+    }
+
+    public BinaryCacheCodec() {
+        register(Shop.class, (byte) 1, new Schema<Shop>() {
+            @Override
+            public void write(DataOutputStream out, Shop shop) throws IOException {
+                writeLong(out, shop.getId());
+                writeString(out, shop.getName());
+                writeLong(out, shop.getTypeId());
+                writeString(out, shop.getImages());
+                writeString(out, shop.getArea());
+                writeString(out, shop.getAddress());
+                writeDouble(out, shop.getX());
+                writeDouble(out, shop.getY());
+                writeLong(out, shop.getAvgPrice());
+                writeInt(out, shop.getSold());
+                writeInt(out, shop.getComments());
+                writeInt(out, shop.getScore());
+                writeString(out, shop.getOpenHours());
+                writeTime(out, shop.getCreateTime());
+                writeTime(out, shop.getUpdateTime());
+            }
+
+            @Override
+            public Shop read(DataInputStream in) throws IOException {
+                return new Shop()
+                        .setId(readLong(in))
+                        .setName(readString(in))
+                        .setTypeId(readLong(in))
+                        .setImages(readString(in))
+                        .setArea(readString(in))
+                        .setAddress(readString(in))
+                        .setX(readDouble(in))
+                        .setY(readDouble(in))
+                        .setAvgPrice(readLong(in))
+                        .setSold(readInt(in))
+                        .setComments(readInt(in))
+                        .setScore(readInt(in))
+                        .setOpenHours(readString(in))
+                        .setCreateTime(readTime(in))
+                        .setUpdateTime(readTime(in));
+            }
+        });
+        register(ShopType.class, (byte) 2, new Schema<ShopType>() {
+            @Override
+            public void write(DataOutputStream out, ShopType type) throws IOException {
+                writeLong(out, type.getId());
+                writeString(out, type.getName());
+                writeString(out, type.getIcon());
+                writeInt(out, type.getSort());
+            }
+
+            @Override
+            public ShopType read(DataInputStream in) throws IOException {
+                return new ShopType()
+                        .setId(readLong(in))
+                        .setName(readString(in))
+                        .setIcon(readString(in))
+                        .setSort(readInt(in));
+            }
+        });
+        register(UserDTO.class, (byte) 3, new Schema<UserDTO>() {
+            @Override
+            public void write(DataOutputStream out, UserDTO user) throws IOException {
+                writeLong(out, user.getId());
+                writeString(out, user.getNickName());
+                writeString(out, user.getIcon());
+            }
+
+            @Override
+            public UserDTO read(DataInputStream in) throws IOException {
+                UserDTO user = new UserDTO();
+                user.setId(readLong(in));
+                user.setNickName(readString(in));
+                user.setIcon(readString(in));
+                return user;
+            }
+        });
+    }
+
+    private <T> void register(Class<T> type, byte tag, Schema<T> schema) {
+        schemas.put(type, schema);
+        tags.put(type, tag);
+        schemasByTag.put(tag, schema);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object value, LocalDateTime expire) {
+        Schema<Object> schema = (Schema<Object>) schemas.get(value.getClass());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(MAGIC);
+            out.writeByte(schema == null ? TYPE_JSON : tags.get(value.getClass()));
+            out.writeLong(expire == null ? NO_EXPIRE : expire.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            if (schema == null) {
+                out.write(jsonCodec.encode(value, null));
+            } else {
+                schema.write(out, value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public <R> RedisDataWithExpire decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return jsonCodec.decode(bytes, type);
+        }
+        RedisDataWithExpire data = new RedisDataWithExpire();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            in.readByte();
+            byte tag = in.readByte();
+            long expire = in.readLong();
+            if (expire != NO_EXPIRE) {
+                data.setExpire(LocalDateTime.ofInstant(Instant.ofEpochMilli(expire), ZoneId.systemDefault()));
+            }
+            Schema<?> schema = schemasByTag.get(tag);
+            if (schema == null) {
+                byte[] json = new byte[bytes.length - 10];
+                in.readFully(json);
+                data.setData(jsonCodec.decode(json, type).getData());
+            } else {
+                data.setData(schema.read(in));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return data;
+    }
+
+    // 可以为 null 的字段先写一个字节表示是否存在
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        writeLong(out, value == null ? null : value.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        Long millis = readLong(in);
+        return millis == null ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    // 字符串写入长度（-1 表示 null）与 UTF-8 字节，不受 writeUTF 64KB 的限制
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
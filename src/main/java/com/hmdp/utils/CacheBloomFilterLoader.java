@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IUserService;
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+
+/**
+ * 启动时从 tb_shop 与 tb_user 按主键游标分页读取全部 id，构建商铺与用户缓存的布隆过滤器。
+ * 过滤器先注册（加载完成前不拦截），加载期间新增的 id 同样会加入过滤器。
+ * 位数组按 当前数量 * 扩容倍数 计算大小，为之后新增的数据预留空间。
+ * 新增的 id 通过发布订阅通知各实例，消息丢失会导致已存在的 id 一直被拦截，因此定期从数据库增量补齐新增的 id，
+ * 元素数量达到预计数量时按新的数量重建过滤器。
+ */
+@Slf4j
+@Component
+public class CacheBloomFilterLoader {
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IUserService userService;
+
+    @Value("${hmdp.cache.bloom.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.bloom.fpp:0.01}")
+    private double fpp;
+
+    @Value("${hmdp.cache.bloom.growth-factor:2}")
+    private double growthFactor;
+
+    @Value("${hmdp.cache.bloom.min-insertions:100000}")
+    private long minInsertions;
+
+    @Value("${hmdp.cache.bloom.page-size:5000}")
+    private int pageSize;
+
+    @Value("${hmdp.cache.bloom.resync-seconds:60}")
+    private long resyncSeconds;
+
+    // 前缀 -> 已加载的最大 id 与上一轮同步的起点
+    private final Map<String, long[]> cursors = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService resyncExecutor = Executors.newSingleThreadScheduledExecutor(
+            ThreadUtil.newNamedThreadFactory("cache-bloom-resync-", true)
+    );
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            return;
+        }
+        // 加载失败时不标记完成，过滤器不拦截任何 id，由定时同步重新加载
+        try {
+            load(CACHE_SHOP_KEY, shopService, Shop::getId);
+            load(CACHE_USER_KEY, userService, User::getId);
+        } catch (Exception e) {
+            log.error("加载布隆过滤器失败", e);
+        }
+        resyncExecutor.scheduleWithFixedDelay(this::resync, resyncSeconds, resyncSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        resyncExecutor.shutdownNow();
+    }
+
+    private void resync() {
+        try {
+            resync(CACHE_SHOP_KEY, shopService, Shop::getId);
+            resync(CACHE_USER_KEY, userService, User::getId);
+        } catch (Exception e) {
+            log.error("同步布隆过滤器失败", e);
+        }
+    }
+
+    private <T> void resync(String prefix, IService<T> service, Function<T, Long> idGetter) {
+        long[] cursor = cursors.get(prefix);
+        IdBloomFilter filter = cacheClient.getBloomFilter(prefix);
+        if (cursor == null || filter == null || filter.isFull()) {
+            load(prefix, service, idGetter);
+            return;
+        }
+        // 从上一轮的起点开始读取：id 小于上一轮最大 id 但当时尚未提交的数据在这一轮补齐，重复加入不影响过滤器
+        long from = cursor[1];
+        long lastId = addIds(filter, service, idGetter, from);
+        cursor[1] = cursor[0];
+        cursor[0] = Math.max(cursor[0], lastId);
+        log.debug("布隆过滤器 {} 同步完成，{}", prefix, filter.stats());
+    }
+
+    private <T> void load(String prefix, IService<T> service, Function<T, Long> idGetter) {
+        long begin = System.currentTimeMillis();
+        long expected = Math.max((long) (service.count() * growthFactor), minInsertions);
+        IdBloomFilter filter = new IdBloomFilter(expected, fpp);
+        cacheClient.registerBloomFilter(prefix, filter);
+        long lastId = addIds(filter, service, idGetter, 0);
+        filter.markReady();
+        cursors.put(prefix, new long[]{lastId, lastId});
+        log.info("布隆过滤器 {} 加载完成，耗时 {} ms，{}", prefix, System.currentTimeMillis() - begin, filter.stats());
+    }
+
+    // 按主键游标分页读取大于 fromId 的 id 加入过滤器，返回读取到的最大 id
+    private <T> long addIds(IdBloomFilter filter, IService<T> service, Function<T, Long> idGetter, long fromId) {
+        long lastId = fromId;
+        while (true) {
+            List<T> page = service.query()
+                    .select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + pageSize)
+                    .list();
+            if (page.isEmpty()) {
+                break;
+            }
+            for (T entity : page) {
+                filter.add(idGetter.apply(entity).toString());
+            }
+            lastId = idGetter.apply(page.get(page.size() - 1));
+        }
+        return lastId;
+    }
+}
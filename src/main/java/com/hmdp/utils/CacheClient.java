@@ -1,129 +1,809 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.thread.ThreadUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
+/**
+ * Redis 缓存工具。可以按 key 前缀开启本地缓存（L1），命中时直接返回反序列化后的对象，无需访问 Redis；
+ * 本地缓存按容量（LRU）与写入后的存活时间淘汰，通过 delete 删除缓存时借助 Redis 发布订阅让所有实例的本地缓存失效。
+ * queryWithMutex 在缓存未命中时合并同一个 key 的并发加载，并用 Redis 互斥锁保证多个实例中只有一个查询数据库。
+ * 缓存值的编码方式由 CacheCodec 决定，默认使用二进制编码，仍可读取 JSON 格式的旧缓存。
+ */
 @Slf4j
 @Component
 public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService executorService = Executors.newFixedThreadPool(10);
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 逻辑过期缓存的重建线程池：有界队列，队列满时放弃本次重建（仍返回旧数据），之后的请求会再次触发
+    @Value("${hmdp.cache.rebuild.core-size:2}")
+    private int rebuildCoreSize;
+
+    @Value("${hmdp.cache.rebuild.max-size:10}")
+    private int rebuildMaxSize;
+
+    @Value("${hmdp.cache.rebuild.queue-capacity:100}")
+    private int rebuildQueueCapacity;
+
+    private ThreadPoolExecutor rebuildExecutor;
+    // 本实例中正在重建的 key，避免同一个 key 重复提交重建任务
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+    private final LongAdder logicalStaleServed = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder rebuildFailures = new LongAdder();
+    private final LongAdder rebuildRejected = new LongAdder();
+    private final LongAdder rebuildMillis = new LongAdder();
+    private final AtomicLong rebuildMaxMillis = new AtomicLong();
+
+    // 本地缓存中表示数据库中不存在的空值
+    private static final Object NULL = new Object();
+
+    // 缓存值的编码方式：binary（默认）/ json
+    @Value("${hmdp.cache.codec:binary}")
+    private String codecName;
+
+    private CacheCodec codec;
+
+    // key 前缀 -> 本地缓存
+    private final Map<String, LRUCache<String, Object>> localCaches = new ConcurrentHashMap<>();
+
+    private static final long MUTEX_RETRY_MILLIS = 50L;
+
+    // 等待其他线程或其他实例重建缓存的最长时间
+    @Value("${hmdp.cache.mutex-wait-millis:1000}")
+    private long mutexWaitMillis;
+
+    // 正在加载的 key，同一个 key 的并发请求等待同一个结果
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    // 最近一次读到的数据，等待重建缓存超时时作为旧数据返回
+    private final LRUCache<String, Object> staleValues = CacheUtil.newLRUCache(10000);
+    private final LongAdder coalescedLoads = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder mutexTimeouts = new LongAdder();
+
+    // key 前缀 -> 过期策略
+    private final Map<String, ExpiryPolicy> expiryPolicies = new ConcurrentHashMap<>();
+    private final LongAdder refreshAheads = new LongAdder();
+
+    // jitter：过期时间在 [ttl, ttl * (1 + jitter)] 之间随机；refreshAhead：剩余寿命不足该比例时在后台提前重建
+    private static class ExpiryPolicy {
+        private final double jitter;
+        private final double refreshAhead;
+
+        private ExpiryPolicy(double jitter, double refreshAhead) {
+            this.jitter = jitter;
+            this.refreshAhead = refreshAhead;
+        }
+    }
+
+    // 热点 key 探测，滑动窗口 = 子窗口时长 * 子窗口数量
+    @Value("${hmdp.cache.hot-key.enabled:true}")
+    private boolean hotKeyEnabled;
+
+    @Value("${hmdp.cache.hot-key.top-n:100}")
+    private int hotKeyTopN;
+
+    @Value("${hmdp.cache.hot-key.min-count:100}")
+    private long hotKeyMinCount;
+
+    @Value("${hmdp.cache.hot-key.window-seconds:10}")
+    private long hotKeyWindowSeconds;
+
+    @Value("${hmdp.cache.hot-key.windows:6}")
+    private int hotKeyWindows;
+
+    @Value("${hmdp.cache.hot-key.pin-ttl-millis:3000}")
+    private long pinTtlMillis;
+
+    private HotKeyDetector hotKeyDetector;
+    // 热点 key 的固定本地缓存，存活时间较短，容量为 top-N 的两倍
+    private LRUCache<String, Object> pinnedCache;
+    // 热点 key 子窗口轮转与延迟删除
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            ThreadUtil.newNamedThreadFactory("cache-scheduler-", true)
+    );
+
+    // 延迟双删的第二次删除距第一次删除的时间，应大于一次读数据库并写缓存的耗时
+    @Value("${hmdp.cache.double-delete-delay-millis:500}")
+    private long doubleDeleteDelayMillis;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder pinnedHits = new LongAdder();
+    private final LongAdder localHits = new LongAdder();
+
+    // key 前缀 -> 布隆过滤器
+    private final Map<String, IdBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+    private final LongAdder bloomRejected = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        codec = "json".equalsIgnoreCase(codecName) ? new JsonCacheCodec() : new BinaryCacheCodec();
+        pinnedCache = CacheUtil.newLRUCache(Math.max(hotKeyTopN * 2, 1), pinTtlMillis);
+        if (hotKeyEnabled) {
+            hotKeyDetector = new HotKeyDetector(4096, 4, hotKeyWindows, hotKeyTopN, hotKeyMinCount);
+            scheduler.scheduleAtFixedRate(
+                    hotKeyDetector::rotate, hotKeyWindowSeconds, hotKeyWindowSeconds, TimeUnit.SECONDS
+            );
+        }
+        rebuildExecutor = new ThreadPoolExecutor(
+                rebuildCoreSize, Math.max(rebuildCoreSize, rebuildMaxSize), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(rebuildQueueCapacity),
+                ThreadUtil.newNamedThreadFactory("cache-rebuild-", true),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            staleValues.remove(key);
+            pinnedCache.remove(key);
+            LRUCache<String, Object> cache = localCache(key);
+            if (cache != null) {
+                cache.remove(key);
+            }
+        }, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 其他实例新增的数据
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            bloomFilters.forEach((prefix, filter) -> {
+                if (key.startsWith(prefix)) {
+                    filter.add(key.substring(prefix.length()));
+                }
+            });
+        }, new ChannelTopic(CACHE_BLOOM_CHANNEL));
+    }
+
+    /**
+     * 设置指定前缀的 key 的过期策略，使批量写入的缓存分散过期，热点 key 在过期前就被重建
+     * @param jitter 过期时间随机增加的最大比例，为 0 时不随机
+     * @param refreshAhead 访问时剩余寿命不足该比例则在后台重建，为 0 时不提前重建
+     */
+    public void setExpiryPolicy(String prefix, double jitter, double refreshAhead) {
+        expiryPolicies.put(prefix, new ExpiryPolicy(jitter, refreshAhead));
+    }
+
+    private ExpiryPolicy expiryPolicy(String key) {
+        for (Map.Entry<String, ExpiryPolicy> entry : expiryPolicies.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    // 按过期策略为过期时间加上随机量，返回毫秒数
+    private long jitteredMillis(String key, Long time, TimeUnit timeUnit) {
+        long millis = timeUnit.toMillis(time);
+        ExpiryPolicy policy = expiryPolicy(key);
+        if (policy == null || policy.jitter <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * policy.jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    // 剩余寿命（毫秒）不足 ttl 的 refreshAhead 比例时需要提前重建
+    private long refreshAheadMillis(String key, Long time, TimeUnit timeUnit) {
+        ExpiryPolicy policy = expiryPolicy(key);
+        return policy == null ? 0 : (long) (timeUnit.toMillis(time) * policy.refreshAhead);
+    }
+
+    /**
+     * 为指定前缀的 key 注册布隆过滤器，查询缓存前先检查 id 是否可能存在
+     */
+    public void registerBloomFilter(String prefix, IdBloomFilter filter) {
+        bloomFilters.put(prefix, filter);
+    }
+
+    public IdBloomFilter getBloomFilter(String prefix) {
+        return bloomFilters.get(prefix);
+    }
+
+    // 布隆过滤器判断一定不存在时返回 true
+    private boolean rejectedByBloomFilter(String prefix, Object id) {
+        IdBloomFilter filter = bloomFilters.get(prefix);
+        if (filter != null && !filter.mightContain(id.toString())) {
+            bloomRejected.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 新增数据后调用，将 id 加入所有实例的布隆过滤器
+     */
+    public void addToBloomFilter(String prefix, Object id) {
+        IdBloomFilter filter = bloomFilters.get(prefix);
+        if (filter != null) {
+            filter.add(id.toString());
+            stringRedisTemplate.convertAndSend(CACHE_BLOOM_CHANNEL, prefix + id);
+        }
+    }
+
+    /**
+     * 为指定前缀的 key 开启本地缓存
+     * @param capacity 最大缓存数量，超出后淘汰最近最少使用的
+     * @param ttl 写入后的存活时间，也是其他途径（如逻辑过期重建）更新 Redis 后本地缓存的最长不一致时间
+     */
+    public void enableLocalCache(String prefix, int capacity, Long ttl, TimeUnit timeUnit) {
+        localCaches.put(prefix, CacheUtil.newLRUCache(capacity, timeUnit.toMillis(ttl)));
+        log.info("开启本地缓存 {}，容量 {}，存活时间 {} {}", prefix, capacity, ttl, timeUnit);
+    }
+
+    private LRUCache<String, Object> localCache(String key) {
+        if (localCaches.isEmpty()) {
+            return null;
+        }
+        for (Map.Entry<String, LRUCache<String, Object>> entry : localCaches.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    // 不刷新访问时间，保证本地缓存在写入后固定时间过期
+    private Object getLocal(LRUCache<String, Object> cache, String key) {
+        return cache == null ? null : cache.get(key, false);
+    }
+
+    // 写入本地缓存，热点 key 同时写入固定缓存（即使该前缀未开启本地缓存）
+    private void putLocal(LRUCache<String, Object> cache, String key, Object value) {
+        Object local = value == null ? NULL : value;
+        if (cache != null) {
+            cache.put(key, local);
+        }
+        if (hotKeyDetector != null && hotKeyDetector.isHot(key)) {
+            pinnedCache.put(key, local);
+        }
+    }
+
+    // 记录访问次数并查询本地缓存：先查热点 key 的固定缓存，再查按前缀开启的本地缓存
+    private Object lookupLocal(LRUCache<String, Object> cache, String key) {
+        lookups.increment();
+        if (hotKeyDetector != null) {
+            hotKeyDetector.record(key);
+            Object pinned = pinnedCache.get(key, false);
+            if (pinned != null) {
+                pinnedHits.increment();
+                return pinned;
+            }
+        }
+        Object local = getLocal(cache, key);
+        if (local != null) {
+            localHits.increment();
+        }
+        return local;
+    }
+
+    /**
+     * 当前的热点 key、估计访问次数以及本地缓存命中率
+     */
+    public Map<String, Object> hotKeys() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = lookups.sum();
+        stats.put("enabled", hotKeyDetector != null);
+        stats.put("lookups", total);
+        stats.put("pinnedHitRatio", total == 0 ? 0 : (double) pinnedHits.sum() / total);
+        stats.put("localHitRatio", total == 0 ? 0 : (double) localHits.sum() / total);
+        stats.put("pinnedSize", pinnedCache.size());
+        stats.put("hotKeys", hotKeyDetector == null ? Collections.emptyMap() : hotKeyDetector.hotKeys());
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> R unwrap(Object value) {
+        return value == NULL ? null : (R) value;
+    }
+
+    /**
+     * 删除缓存，并通知所有实例删除本地缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        invalidateLocal(key);
+    }
+
+    /**
+     * 删除所有实例的本地缓存，不删除 Redis 中的缓存，用于原地更新 Redis 缓存之后
+     */
+    public void invalidateLocal(String key) {
+        staleValues.remove(key);
+        pinnedCache.remove(key);
+        LRUCache<String, Object> cache = localCache(key);
+        if (cache != null) {
+            cache.remove(key);
+        }
+        // 任何 key 都可能作为热点 key 被其他实例固定在本地，因此总是广播
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 延迟双删：在当前事务提交后删除缓存，并在一段时间后再删除一次，
+     * 清除事务提交前并发读请求用旧数据重建的缓存。不在事务中时立即执行第一次删除。
+     */
+    public void deleteAfterCommit(String key) {
+        Runnable doubleDelete = () -> {
+            delete(key);
+            scheduler.schedule(() -> {
+                try {
+                    delete(key);
+                } catch (Exception e) {
+                    log.error("延迟删除缓存 {} 失败", key, e);
+                }
+            }, doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            doubleDelete.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                doubleDelete.run();
+            }
+        });
+    }
 
-    private boolean tryLock(String lockName) {
-        return BooleanUtil.isTrue(
-                stringRedisTemplate.opsForValue().setIfAbsent(lockName, lockName, 2, TimeUnit.SECONDS)
+    /**
+     * 在任意的 Redis 查询外包一层本地缓存，未开启本地缓存的前缀直接调用 loader
+     */
+    public <R> R queryWithLocal(String key, Supplier<R> loader) {
+        LRUCache<String, Object> cache = localCache(key);
+        Object local = lookupLocal(cache, key);
+        if (local != null) {
+            return unwrap(local);
+        }
+        R ret = loader.get();
+        putLocal(cache, key, ret);
+        return ret;
+    }
+
+    // 按字节读取缓存，不存在时返回 null，空值返回长度为 0 的数组
+    private byte[] getRaw(String key) {
+        return stringRedisTemplate.execute(
+                (RedisCallback<byte[]>) connection -> connection.get(key.getBytes(StandardCharsets.UTF_8))
         );
     }
 
-    private void unlock(String lockName) {
-        stringRedisTemplate.delete(lockName);
+    private void setRaw(String key, byte[] value, Expiration expiration) {
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(
+                key.getBytes(StandardCharsets.UTF_8), value, expiration, RedisStringCommands.SetOption.upsert()
+        ));
     }
 
     public void setWithExpire(String key, Object value, Long time, TimeUnit timeUnit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, timeUnit);
+        setRaw(key, codec.encode(value, null), Expiration.milliseconds(jitteredMillis(key, time, timeUnit)));
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit timeUnit) {
-        RedisDataWithExpire data = new RedisDataWithExpire();
-        data.setData(value);
-        data.setExpire(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(data));
+        LocalDateTime expire = LocalDateTime.now().plus(jitteredMillis(key, time, timeUnit), ChronoUnit.MILLIS);
+        setRaw(key, codec.encode(value, expire), Expiration.persistent());
+    }
+
+    // 数据库中不存在，写入空值
+    private void setNull(String key) {
+        setRaw(key, new byte[0], Expiration.milliseconds(jitteredMillis(key, CACHE_NULL_TTL, TimeUnit.MINUTES)));
+    }
+
+    // 开启提前重建时，用一次 pipeline 同时查询缓存值与剩余寿命，返回 [值, 剩余毫秒数]
+    private Object[] getRawWithTtl(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.get(rawKey);
+            connection.pTtl(rawKey);
+            return null;
+        }, RedisSerializer.byteArray());
+        return new Object[]{results.get(0), results.get(1)};
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R decodeData(byte[] bytes, Class<R> type) {
+        return (R) codec.decode(bytes, type).getData();
     }
 
     public <R, ID> R queryWithMutex(
             String prefix, ID id, Long time, TimeUnit timeUnit, Class<R> type, Function<ID, R> dbFunction
     ) {
-        // 从 Redis 查询缓存
+        // 布隆过滤器判断不存在的 id 直接返回，不访问 Redis 与数据库，也不写入空值
+        if (rejectedByBloomFilter(prefix, id)) {
+            return null;
+        }
         String key = prefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 先查询本地缓存
+        LRUCache<String, Object> cache = localCache(key);
+        Object local = lookupLocal(cache, key);
+        if (local != null) {
+            return unwrap(local);
+        }
+        // 从 Redis 查询缓存，开启提前重建时同时查询剩余寿命
+        long refreshAheadMillis = refreshAheadMillis(key, time, timeUnit);
+        byte[] json;
+        long ttlMillis = -1;
+        if (refreshAheadMillis > 0) {
+            Object[] valueWithTtl = getRawWithTtl(key);
+            json = (byte[]) valueWithTtl[0];
+            ttlMillis = valueWithTtl[1] == null ? -1 : (Long) valueWithTtl[1];
+        } else {
+            json = getRaw(key);
+        }
         // 存在则直接返回
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
+        if (json != null && json.length > 0) {
+            R ret = decodeData(json, type);
+            putLocal(cache, key, ret);
+            staleValues.put(key, ret);
+            // 即将过期，在后台提前重建
+            if (ttlMillis >= 0 && ttlMillis < refreshAheadMillis) {
+                refreshAheads.increment();
+                scheduleRebuild(prefix, id,
+                        () -> {
+                            Long ttl = stringRedisTemplate.getExpire(key, TimeUnit.MILLISECONDS);
+                            return ttl != null && ttl >= refreshAheadMillis;
+                        },
+                        dbFunction, r -> setWithExpire(key, r, time, timeUnit));
+            }
+            return ret;
         }
         // 不存在
         // 命中空值（shopJson == ""）
         if (json != null) {
+            putLocal(cache, key, null);
             return null;
         }
         // 命中不是空值（shopJson == null）
-        // 查询数据库
-        R ret = dbFunction.apply(id);
-        // 不存在将空值写入 Redis
-        if (ret == null) {
-            stringRedisTemplate
-                    .opsForValue()
-                    .set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+        // 本实例内同一个 key 只有一个线程重建缓存，其余线程等待它的结果；多个实例之间通过 Redis 互斥锁保证只有一个实例查询数据库
+        R ret = singleFlight(key, () -> loadWithMutex(
+                key, id, dbFunction, j -> decodeData(j, type), r -> setWithExpire(key, r, time, timeUnit)
+        ), id, dbFunction);
+        if (ret != null) {
+            putLocal(cache, key, ret);
+            staleValues.put(key, ret);
         }
-        // 存在则先写入 Redis 缓存
-        setWithExpire(key, ret, time, timeUnit);
-        // 然后返回
         return ret;
     }
 
+    // 同一个 key 的并发加载合并为一次，等待超时后降级
+    @SuppressWarnings("unchecked")
+    private <R, ID> R singleFlight(String key, Supplier<R> loader, ID id, Function<ID, R> dbFunction) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> loading = inFlight.putIfAbsent(key, future);
+        if (loading != null) {
+            coalescedLoads.increment();
+            try {
+                return (R) loading.get(mutexWaitMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return fallback(key, id, dbFunction);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        try {
+            R ret = loader.get();
+            future.complete(ret);
+            return ret;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    // 获取 Redis 互斥锁后重建缓存；未获取到锁则等待其他实例重建完成，超过最长等待时间后降级
+    // parser 将 Redis 中的非空值反序列化，writer 将数据库查询结果写入 Redis
+    private <R, ID> R loadWithMutex(
+            String key, ID id, Function<ID, R> dbFunction, Function<byte[], R> parser, Consumer<R> writer
+    ) {
+        SimpleRedisLock lock = new SimpleRedisLock(key, stringRedisTemplate);
+        long deadline = System.currentTimeMillis() + mutexWaitMillis;
+        while (true) {
+            if (lock.tryLock(LOCK_SHOP_TTL)) {
+                try {
+                    // Double check，其他实例可能已经重建缓存
+                    byte[] json = getRaw(key);
+                    if (json != null) {
+                        return json.length == 0 ? null : parser.apply(json);
+                    }
+                    // 查询数据库
+                    R ret = dbFunction.apply(id);
+                    // 不存在将空值写入 Redis
+                    if (ret == null) {
+                        setNull(key);
+                        return null;
+                    }
+                    // 存在则写入 Redis 缓存
+                    writer.accept(ret);
+                    return ret;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            // 未能获取互斥锁，则休眠一段时间重新查询缓存
+            ThreadUtil.sleep(MUTEX_RETRY_MILLIS);
+            byte[] json = getRaw(key);
+            if (json != null) {
+                return json.length == 0 ? null : parser.apply(json);
+            }
+            if (System.currentTimeMillis() > deadline) {
+                return fallback(key, id, dbFunction);
+            }
+        }
+    }
+
+    // 等待超时：优先返回最近一次读到的旧数据，没有旧数据时直接查询数据库
+    @SuppressWarnings("unchecked")
+    private <R, ID> R fallback(String key, ID id, Function<ID, R> dbFunction) {
+        Object stale = staleValues.get(key, false);
+        if (stale != null) {
+            staleHits.increment();
+            log.warn("等待重建缓存 {} 超时，返回旧数据", key);
+            return (R) stale;
+        }
+        mutexTimeouts.increment();
+        log.warn("等待重建缓存 {} 超时，直接查询数据库", key);
+        return dbFunction.apply(id);
+    }
+
+    /**
+     * 批量查询：先查本地缓存，其余的 key 一次 MGET，仍未命中的 id 一次查询数据库，再通过一次 pipeline 写回 Redis
+     * @param dbBatchFunction 按 id 列表批量查询数据库，返回 id 到数据的映射，不存在的 id 不需要出现在结果中
+     * @return 与 ids 顺序一致的结果，不存在的数据为 null
+     */
+    public <R, ID> List<R> queryBatch(
+            String prefix, List<ID> ids, Long time, TimeUnit timeUnit, Class<R> type,
+            Function<List<ID>, Map<ID, R>> dbBatchFunction
+    ) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        // 查询本地缓存
+        List<ID> redisIds = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (rejectedByBloomFilter(prefix, id)) {
+                continue;
+            }
+            String key = prefix + id;
+            Object local = lookupLocal(localCache(key), key);
+            if (local == null) {
+                redisIds.add(id);
+            } else if (local != NULL) {
+                found.put(id, unwrap(local));
+            }
+        }
+        // 一次 MGET 查询 Redis
+        List<ID> missIds = new ArrayList<>();
+        if (!redisIds.isEmpty()) {
+            byte[][] keys = redisIds.stream()
+                    .map(id -> (prefix + id).getBytes(StandardCharsets.UTF_8))
+                    .toArray(byte[][]::new);
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+            for (int i = 0; i < redisIds.size(); i++) {
+                ID id = redisIds.get(i);
+                byte[] value = values == null ? null : values.get(i);
+                if (value == null) {
+                    missIds.add(id);
+                    continue;
+                }
+                R ret = value.length == 0 ? null : decodeData(value, type);
+                putLocal(localCache(prefix + id), prefix + id, ret);
+                if (ret != null) {
+                    found.put(id, ret);
+                }
+            }
+        }
+        // 未命中的 id 一次查询数据库，并通过一次 pipeline 写回 Redis，不存在的 id 写入空值
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = dbBatchFunction.apply(missIds);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : missIds) {
+                    R ret = loaded.get(id);
+                    String key = prefix + id;
+                    if (ret == null) {
+                        connection.set(key.getBytes(StandardCharsets.UTF_8), new byte[0],
+                                Expiration.milliseconds(jitteredMillis(key, CACHE_NULL_TTL, TimeUnit.MINUTES)),
+                                RedisStringCommands.SetOption.upsert());
+                    } else {
+                        connection.set(key.getBytes(StandardCharsets.UTF_8), codec.encode(ret, null),
+                                Expiration.milliseconds(jitteredMillis(key, time, timeUnit)),
+                                RedisStringCommands.SetOption.upsert());
+                    }
+                }
+                return null;
+            });
+            for (ID id : missIds) {
+                R ret = loaded.get(id);
+                putLocal(localCache(prefix + id), prefix + id, ret);
+                if (ret != null) {
+                    found.put(id, ret);
+                }
+            }
+        }
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("coalescedLoads", coalescedLoads.sum());
+        stats.put("staleHits", staleHits.sum());
+        stats.put("mutexTimeouts", mutexTimeouts.sum());
+        stats.put("inFlight", inFlight.size());
+        stats.put("bloomRejected", bloomRejected.sum());
+        Map<String, Object> filters = new LinkedHashMap<>();
+        bloomFilters.forEach((prefix, filter) -> filters.put(prefix, filter.stats()));
+        stats.put("bloomFilters", filters);
+        stats.put("logicalStaleServed", logicalStaleServed.sum());
+        stats.put("refreshAheads", refreshAheads.sum());
+        stats.put("rebuilds", rebuilds.sum());
+        stats.put("rebuildFailures", rebuildFailures.sum());
+        stats.put("rebuildRejected", rebuildRejected.sum());
+        long count = rebuilds.sum() + rebuildFailures.sum();
+        stats.put("rebuildAvgMillis", count == 0 ? 0 : rebuildMillis.sum() / count);
+        stats.put("rebuildMaxMillis", rebuildMaxMillis.get());
+        stats.put("rebuildQueueSize", rebuildExecutor.getQueue().size());
+        stats.put("rebuildActive", rebuildExecutor.getActiveCount());
+        return stats;
+    }
+
     public <R, ID> R queryWithLogicalExpire(
             String prefix, ID id, Long time, TimeUnit timeUnit, Class<R> type, Function<ID, R> dbFunction
     ) {
-        // 从 Redis 查询缓存
+        if (rejectedByBloomFilter(prefix, id)) {
+            return null;
+        }
         String key = prefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 不存在则返回空值
-        if (StrUtil.isBlank(json)) {
+        // 先查询本地缓存，本地缓存的存活时间内不检查逻辑过期
+        LRUCache<String, Object> cache = localCache(key);
+        Object local = lookupLocal(cache, key);
+        if (local != null) {
+            return unwrap(local);
+        }
+        // 从 Redis 查询缓存
+        byte[] json = getRaw(key);
+        // 命中空值（数据库中不存在）
+        if (json != null && json.length == 0) {
+            putLocal(cache, key, null);
             return null;
         }
-        // 命中，Json 反序列化
-        RedisDataWithExpire data = JSONUtil.toBean(json, RedisDataWithExpire.class);
-        R ret = JSONUtil.toBean((JSONObject) data.getData(), type);
+        // 未命中（未预热或已被删除），同步加载：合并本实例的并发加载，并用 Redis 互斥锁保证只有一个实例查询数据库
+        if (json == null) {
+            R ret = singleFlight(key, () -> loadWithMutex(
+                    key, id, dbFunction,
+                    j -> decodeData(j, type),
+                    r -> setWithLogicalExpire(key, r, time, timeUnit)
+            ), id, dbFunction);
+            if (ret != null) {
+                putLocal(cache, key, ret);
+                staleValues.put(key, ret);
+            }
+            return ret;
+        }
+        // 命中，反序列化
+        RedisDataWithExpire data = codec.decode(json, type);
+        @SuppressWarnings("unchecked")
+        R ret = (R) data.getData();
         LocalDateTime expire = data.getExpire();
-        // 判断是否过期
-        if(expire.isAfter(LocalDateTime.now())) {
-            // 未过期，直接返回
+        // 判断是否过期（没有逻辑过期时间的值视为未过期）
+        LocalDateTime now = LocalDateTime.now();
+        if(expire == null || expire.isAfter(now)) {
+            // 未过期，写入本地缓存后返回；开启提前重建且剩余寿命不足时在后台提前重建
+            putLocal(cache, key, ret);
+            long refreshAheadMillis = refreshAheadMillis(key, time, timeUnit);
+            LocalDateTime refreshAfter = now.plus(refreshAheadMillis, ChronoUnit.MILLIS);
+            if (expire != null && refreshAheadMillis > 0 && !expire.isAfter(refreshAfter)) {
+                refreshAheads.increment();
+                scheduleRebuild(prefix, id, () -> isLogicallyFresh(key, type, refreshAfter),
+                        dbFunction, r -> setWithLogicalExpire(key, r, time, timeUnit));
+            }
             return ret;
         }
-        // 过期，重建缓存
-        // 获取互斥锁
-        String lockName = prefix + "lock:" + id;
-        boolean isLocked = tryLock(lockName);
-        // 检查获取互斥锁是否成功
-        if(isLocked) {
-            // 从 Redis 查询缓存，Double check，检查是否已经重建缓存，如果已经重建缓存，就可以直接返回
-            json = stringRedisTemplate.opsForValue().get(key);
-            data = JSONUtil.toBean(json, RedisDataWithExpire.class);
-            ret = JSONUtil.toBean((JSONObject) data.getData(), type);
-            expire = data.getExpire();
-            if(expire.isAfter(LocalDateTime.now())) {
-                unlock(lockName);
-                return ret;
-            }
-            // 获取成功，新建线程实现缓存重建
-            executorService.submit(() -> {
+        // 过期，提交重建任务后返回旧数据
+        logicalStaleServed.increment();
+        scheduleRebuild(prefix, id, () -> isLogicallyFresh(key, type, LocalDateTime.now()),
+                dbFunction, r -> setWithLogicalExpire(key, r, time, timeUnit));
+        return ret;
+    }
+
+    // 缓存的逻辑过期时间晚于 after，即已被其他线程或实例重建
+    private <R> boolean isLogicallyFresh(String key, Class<R> type, LocalDateTime after) {
+        byte[] json = getRaw(key);
+        if (json == null || json.length == 0) {
+            return false;
+        }
+        LocalDateTime expire = codec.decode(json, type).getExpire();
+        return expire == null || expire.isAfter(after);
+    }
+
+    // 提交后台重建任务（逻辑过期或提前重建）：本实例内按 key 去重，多个实例之间通过 Redis 互斥锁去重。
+    // 互斥锁与 loadWithMutex 一样使用 SimpleRedisLock，在重建线程中获取与释放，只会释放自己持有的锁
+    // fresh 用于 Double check 缓存是否已被重建，writer 将数据库查询结果写入 Redis
+    private <R, ID> void scheduleRebuild(
+            String prefix, ID id, BooleanSupplier fresh, Function<ID, R> dbFunction, Consumer<R> writer
+    ) {
+        String key = prefix + id;
+        if (!rebuilding.add(key)) {
+            return;
+        }
+        SimpleRedisLock lock = new SimpleRedisLock(prefix + "lock:" + id, stringRedisTemplate);
+        try {
+            rebuildExecutor.execute(() -> {
+                if (!lock.tryLock(LOCK_SHOP_TTL)) {
+                    // 其他实例正在重建
+                    rebuilding.remove(key);
+                    return;
+                }
+                long begin = System.currentTimeMillis();
                 try {
+                    // Double check，检查其他实例是否已经重建缓存
+                    if (fresh.getAsBoolean()) {
+                        return;
+                    }
                     R r = dbFunction.apply(id);
-                    setWithLogicalExpire(key, r, time, timeUnit);
+                    if (r == null) {
+                        // 数据库中已不存在，写入空值
+                        setNull(key);
+                    } else {
+                        writer.accept(r);
+                    }
+                    rebuilds.increment();
                 } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    rebuildFailures.increment();
+                    log.error("重建缓存 {} 失败", key, e);
                 } finally {
-                    unlock(lockName);
+                    long millis = System.currentTimeMillis() - begin;
+                    rebuildMillis.add(millis);
+                    rebuildMaxMillis.accumulateAndGet(millis, Math::max);
+                    lock.unlock();
+                    rebuilding.remove(key);
                 }
             });
+        } catch (RejectedExecutionException e) {
+            // 重建线程池已满，放弃本次重建，之后的请求会再次触发
+            rebuildRejected.increment();
+            rebuilding.remove(key);
+            log.warn("重建缓存线程池已满，放弃重建 {}", key);
         }
-        // 返回
-        return ret;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdownNow();
+        scheduler.shutdownNow();
     }
 }
@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * CacheClient 写入 Redis 的缓存值的编解码方式
+ */
+public interface CacheCodec {
+    /**
+     * @param expire 逻辑过期时间，为 null 表示不使用逻辑过期
+     */
+    byte[] encode(Object value, LocalDateTime expire);
+
+    /**
+     * @return 缓存的数据与逻辑过期时间（没有逻辑过期时间时为 null）
+     */
+    <R> RedisDataWithExpire decode(byte[] bytes, Class<R> type);
+}
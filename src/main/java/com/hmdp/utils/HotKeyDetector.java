@@ -0,0 +1,112 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+
+/**
+ * 热点 key 探测：滑动窗口的 Count-Min Sketch 估计每个 key 最近一段时间的访问次数。
+ * 时间窗口被划分为若干个子窗口，每个子窗口一个计数矩阵，另有一个矩阵保存所有子窗口之和；
+ * 子窗口轮转时从总和中减去最旧的子窗口并清零。每次轮转时从候选 key 中重新计算访问次数最多的 top-N。
+ */
+public class HotKeyDetector {
+    private final int width;
+    private final int depth;
+    private final int topN;
+    private final long minCount;
+    private final AtomicIntegerArray[] windows;
+    private final AtomicIntegerArray total;
+    private volatile int current;
+
+    // 访问次数达到阈值的候选 key，轮转时重新排序
+    private final Set<String> candidates = ConcurrentHashMap.newKeySet();
+    private volatile long threshold;
+    private volatile Map<String, Long> hotKeys = Collections.emptyMap();
+
+    public HotKeyDetector(int width, int depth, int windowCount, int topN, long minCount) {
+        this.width = width;
+        this.depth = depth;
+        this.topN = topN;
+        this.minCount = minCount;
+        this.threshold = minCount;
+        this.windows = new AtomicIntegerArray[windowCount];
+        for (int i = 0; i < windowCount; i++) {
+            windows[i] = new AtomicIntegerArray(width * depth);
+        }
+        this.total = new AtomicIntegerArray(width * depth);
+    }
+
+    private int index(long[] hash, int row) {
+        return row * width + (int) Math.floorMod(hash[0] + row * hash[1], (long) width);
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void record(String key) {
+        long[] hash = MurmurHash.hash128(key);
+        AtomicIntegerArray window = windows[current];
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int i = index(hash, row);
+            window.incrementAndGet(i);
+            estimate = Math.min(estimate, total.incrementAndGet(i));
+        }
+        if (estimate >= threshold && candidates.size() < topN * 4) {
+            candidates.add(key);
+        }
+    }
+
+    public long estimate(String key) {
+        long[] hash = MurmurHash.hash128(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, total.get(index(hash, row)));
+        }
+        return estimate;
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 轮转到下一个子窗口，并重新计算 top-N
+     */
+    public synchronized void rotate() {
+        int next = (current + 1) % windows.length;
+        AtomicIntegerArray expired = windows[next];
+        for (int i = 0; i < expired.length(); i++) {
+            int count = expired.getAndSet(i, 0);
+            if (count != 0) {
+                total.addAndGet(i, -count);
+            }
+        }
+        current = next;
+        // 重新估计候选 key 的访问次数，保留 top-N
+        List<Map.Entry<String, Long>> ranked = candidates.stream()
+                .map(key -> new AbstractMap.SimpleEntry<>(key, estimate(key)))
+                .filter(e -> e.getValue() >= minCount)
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .collect(Collectors.toList());
+        Map<String, Long> hot = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : ranked.subList(0, Math.min(topN, ranked.size()))) {
+            hot.put(entry.getKey(), entry.getValue());
+        }
+        hotKeys = hot;
+        // top-N 已满时，只有访问次数超过第 N 名的 key 才能成为候选
+        threshold = hot.size() < topN ? minCount : Math.max(minCount, ranked.get(topN - 1).getValue());
+        Set<String> keep = ranked.stream().limit(topN * 2L).map(Map.Entry::getKey).collect(Collectors.toSet());
+        candidates.retainAll(keep);
+    }
+
+    /**
+     * 当前的热点 key 及其在滑动窗口内的估计访问次数，按访问次数降序
+     */
+    public Map<String, Long> hotKeys() {
+        return hotKeys;
+    }
+}
@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地布隆过滤器，用于在查询缓存前拒绝一定不存在的 id。
+ * 位数组大小与哈希函数个数由预计元素数量与误判率计算，使用 128 位 MurmurHash 的两个 64 位结果做双重哈希。
+ * 加载完成前（ready 为 false）所有 id 都视为可能存在。
+ */
+public class IdBloomFilter {
+    private final long expectedInsertions;
+    private final double fpp;
+    private final int numHashes;
+    private final long numBits;
+    private final AtomicLongArray bits;
+    private final LongAdder insertions = new LongAdder();
+    private volatile boolean ready;
+
+    public IdBloomFilter(long expectedInsertions, double fpp) {
+        this.expectedInsertions = Math.max(expectedInsertions, 1);
+        this.fpp = fpp;
+        // m = -n * ln(p) / (ln 2)^2，k = m / n * ln 2
+        long m = (long) Math.ceil(-this.expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int) Math.min((m + 63) / 64, Integer.MAX_VALUE));
+        this.numBits = bits.length() * 64L;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / this.expectedInsertions * Math.log(2)));
+    }
+
+    // 重复加入同一个 id 不会改变位数组，也不计入元素数量
+    public void add(String id) {
+        long[] hash = MurmurHash.hash128(id);
+        boolean changed = false;
+        for (int i = 0; i < numHashes; i++) {
+            long index = Math.floorMod(hash[0] + i * hash[1], numBits);
+            int word = (int) (index >>> 6);
+            long mask = 1L << (index & 63);
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+            if ((old & mask) == 0) {
+                changed = true;
+            }
+        }
+        if (changed) {
+            insertions.increment();
+        }
+    }
+
+    public boolean mightContain(String id) {
+        if (!ready) {
+            return true;
+        }
+        long[] hash = MurmurHash.hash128(id);
+        for (int i = 0; i < numHashes; i++) {
+            long index = Math.floorMod(hash[0] + i * hash[1], numBits);
+            if ((bits.get((int) (index >>> 6)) & (1L << (index & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void markReady() {
+        ready = true;
+    }
+
+    // 元素数量已达到预计数量，误判率开始高于配置值，需要按新的数量重建
+    public boolean isFull() {
+        return insertions.sum() >= expectedInsertions;
+    }
+
+    // 大小与当前元素数量下的预计误判率
+    public Map<String, Object> stats() {
+        long n = insertions.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("expectedInsertions", expectedInsertions);
+        stats.put("insertions", n);
+        stats.put("configuredFpp", fpp);
+        stats.put("estimatedFpp", Math.pow(1 - Math.exp(-(double) numHashes * n / numBits), numHashes));
+        stats.put("numHashes", numHashes);
+        stats.put("bits", numBits);
+        stats.put("bytes", numBits / 8);
+        return stats;
+    }
+}
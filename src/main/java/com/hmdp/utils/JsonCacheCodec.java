@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * JSON 编解码，与原有的缓存格式兼容：不使用逻辑过期时直接存储数据的 JSON，使用逻辑过期时存储 RedisDataWithExpire 的 JSON
+ */
+public class JsonCacheCodec implements CacheCodec {
+    // RedisDataWithExpire 的过期时间字段序列化后的名称
+    private static final String EXPIRE = "Expire";
+
+    @Override
+    public byte[] encode(Object value, LocalDateTime expire) {
+        if (expire == null) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisDataWithExpire data = new RedisDataWithExpire();
+        data.setData(value);
+        data.setExpire(expire);
+        return JSONUtil.toJsonStr(data).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 只解析一次 JSON，根据是否包含逻辑过期时间判断格式
+    @Override
+    public <R> RedisDataWithExpire decode(byte[] bytes, Class<R> type) {
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        RedisDataWithExpire data = new RedisDataWithExpire();
+        JSONObject inner = json.getJSONObject("data");
+        if (inner != null && json.containsKey(EXPIRE)) {
+            data.setExpire(json.getLocalDateTime(EXPIRE, null));
+            data.setData(inner.toBean(type));
+        } else {
+            data.setData(json.toBean(type));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 登录会话的本地缓存，按 token 缓存用户信息与 Redis 中会话的过期时间。
+ * 本地未命中时一次 pipeline 读取会话（HGETALL）与剩余有效期（PTTL）；
+ * 只有会话剩余有效期低于阈值时才刷新有效期（EXPIRE），而不是每次请求都刷新。
+ * 登出时通过 Redis 发布订阅清除所有实例的本地缓存，本地缓存的存活时间是其他情况（如会话被直接删除）下的最长延迟。
+ */
+@Component
+public class LoginSessionCache {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.login.session-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.login.session-cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${hmdp.login.session-cache.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    // 剩余有效期低于 LOGIN_USER_TTL 的该比例时刷新有效期
+    @Value("${hmdp.login.session-cache.refresh-below-ratio:0.9}")
+    private double refreshBelowRatio;
+
+    private LRUCache<String, Session> sessions;
+    private long refreshThresholdMillis;
+
+    private static class Session {
+        private final UserDTO user;
+        // Redis 中会话的过期时间（毫秒时间戳），-1 表示不过期
+        private volatile long expireAt;
+
+        private Session(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = expireAt;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        sessions = CacheUtil.newLRUCache(maxSize, TimeUnit.SECONDS.toMillis(ttlSeconds));
+        refreshThresholdMillis = (long) (TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL) * refreshBelowRatio);
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            sessions.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+        }, new ChannelTopic(LOGIN_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 根据 token 获取登录用户，会话不存在时返回 null
+     */
+    public UserDTO get(String token) {
+        Session session = enabled ? sessions.get(token, false) : null;
+        if (session == null) {
+            session = load(token);
+            if (session == null) {
+                return null;
+            }
+            if (enabled) {
+                sessions.put(token, session);
+            }
+        }
+        refreshIfNeeded(token, session);
+        return session.user;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Session load(String token) {
+        String key = LOGIN_USER_KEY + token;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hGetAll(key);
+            conn.pTtl(key);
+            return null;
+        });
+        Map<String, String> userMap = (Map<String, String>) results.get(0);
+        if (userMap == null || userMap.isEmpty()) {
+            return null;
+        }
+        Long pttl = (Long) results.get(1);
+        long expireAt = pttl == null || pttl < 0 ? -1 : System.currentTimeMillis() + pttl;
+        return new Session(toUserDTO(userMap), expireAt);
+    }
+
+    // 直接按字段构造，避免 BeanUtil.fillBeanWithMap 的反射开销
+    private static UserDTO toUserDTO(Map<String, String> userMap) {
+        UserDTO userDTO = new UserDTO();
+        String id = userMap.get("id");
+        userDTO.setId(id == null ? null : Long.valueOf(id));
+        userDTO.setNickName(userMap.get("nickName"));
+        userDTO.setIcon(userMap.get("icon"));
+        return userDTO;
+    }
+
+    private void refreshIfNeeded(String token, Session session) {
+        long expireAt = session.expireAt;
+        long now = System.currentTimeMillis();
+        if (expireAt < 0 || expireAt - now >= refreshThresholdMillis) {
+            return;
+        }
+        // 先更新本地记录的过期时间，并发请求中只有一个会刷新
+        synchronized (session) {
+            if (session.expireAt != expireAt) {
+                return;
+            }
+            session.expireAt = now + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        }
+        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 清除所有实例中该 token 的本地会话缓存，会话本身由调用方删除
+     */
+    public void invalidate(String token) {
+        sessions.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_INVALIDATE_CHANNEL, token);
+    }
+}
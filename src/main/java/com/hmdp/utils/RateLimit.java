@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.*;
+
+/**
+ * 接口限流，由 RateLimitInterceptor 处理。同一个接口可以声明多个限流规则，任意一个规则拒绝即拒绝请求。
+ * 容量与速率可以在配置 hmdp.rate-limit.limits.{name}.capacity / rate 中覆盖。
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(RateLimit.List.class)
+@Documented
+public @interface RateLimit {
+
+    enum KeyType {
+        // 按客户端 IP 限流
+        IP,
+        // 按登录用户限流，未登录的请求不受该规则限制
+        USER,
+        // 按请求参数限流，参数由 param 指定
+        PARAM
+    }
+
+    /**
+     * 规则名称，用于读取配置、拼接 Redis key 与统计
+     */
+    String name();
+
+    KeyType key() default KeyType.IP;
+
+    /**
+     * key 为 PARAM 时使用的请求参数名
+     */
+    String param() default "";
+
+    /**
+     * 令牌桶容量，即允许的突发请求数
+     */
+    long capacity() default 10;
+
+    /**
+     * 每秒生成的令牌数
+     */
+    double rate() default 1;
+
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @Documented
+    @interface List {
+        RateLimit[] value();
+    }
+}
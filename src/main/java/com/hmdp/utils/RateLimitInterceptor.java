@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.Validator;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 处理接口上的 @RateLimit，任意一个规则拒绝时返回 429
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private final RateLimiter rateLimiter;
+    // 可信的反向代理地址，支持单个 IP 与 IPv4 网段（如 10.0.0.0/8）
+    private final List<String> trustedProxies;
+
+    public RateLimitInterceptor(RateLimiter rateLimiter, List<String> trustedProxies) {
+        this.rateLimiter = rateLimiter;
+        this.trustedProxies = trustedProxies;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        RateLimit[] rules = ((HandlerMethod) handler).getMethod().getAnnotationsByType(RateLimit.class);
+        for (RateLimit rule : rules) {
+            String key = resolveKey(rule, request);
+            if (key == null || rateLimiter.tryAcquire(rule, key)) {
+                continue;
+            }
+            response.setStatus(SC_TOO_MANY_REQUESTS);
+            response.setContentType("application/json;charset=UTF-8");
+            response.getWriter().write(JSONUtil.toJsonStr(Result.fail("请求过于频繁，请稍后再试")));
+            return false;
+        }
+        return true;
+    }
+
+    // 无法确定 key 的请求（未登录、缺少参数）不受该规则限制
+    private String resolveKey(RateLimit rule, HttpServletRequest request) {
+        switch (rule.key()) {
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                return user == null ? null : user.getId().toString();
+            case PARAM:
+                String value = request.getParameter(rule.param());
+                return StrUtil.isBlank(value) ? null : value;
+            case IP:
+            default:
+                return clientIp(request);
+        }
+    }
+
+    // 直接连接的地址不是可信代理时，X-Forwarded-For 可以由客户端任意伪造，直接使用连接地址；
+    // 否则从右向左跳过可信代理，取第一个不可信的地址，即最后一个可信代理看到的客户端地址
+    String clientIp(HttpServletRequest request) {
+        String remote = request.getRemoteAddr();
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (StrUtil.isBlank(forwarded) || !isTrustedProxy(remote)) {
+            return remote;
+        }
+        String[] hops = forwarded.split(",");
+        String ip = remote;
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (hop.isEmpty()) {
+                continue;
+            }
+            ip = hop;
+            if (!isTrustedProxy(hop)) {
+                break;
+            }
+        }
+        return ip;
+    }
+
+    private boolean isTrustedProxy(String ip) {
+        for (String proxy : trustedProxies) {
+            if (proxy.equals(ip)) {
+                return true;
+            }
+            if (proxy.contains("/") && Validator.isIpv4(ip) && NetUtil.isInRange(ip, proxy)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 基于令牌桶的分布式限流。令牌桶保存在 Redis 中，由 Lua 脚本原子地补充并扣减令牌。
+ * 每个实例另有一个相同容量与速率的本地令牌桶作为预过滤：本实例看到的请求只是全部请求的一部分，
+ * 本地令牌桶耗尽时 Redis 中的令牌桶一定也已耗尽，可以直接拒绝，不访问 Redis。
+ * Redis 异常时放行请求，限流不影响正常业务。
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rateLimit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private Environment environment;
+
+    @Value("${hmdp.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.rate-limit.local-max-size:100000}")
+    private int localMaxSize;
+
+    private LRUCache<String, LocalBucket> localBuckets;
+
+    // 规则名称 -> 配置覆盖后的容量与速率
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+    // 规则名称 -> 统计
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    private static class Limit {
+        private final long capacity;
+        private final double rate;
+
+        private Limit(long capacity, double rate) {
+            this.capacity = capacity;
+            this.rate = rate;
+        }
+    }
+
+    private static class Counters {
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder rejectedLocal = new LongAdder();
+        private final LongAdder rejectedRedis = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+
+    private static class LocalBucket {
+        private double tokens;
+        private long lastRefillMillis;
+
+        private LocalBucket(long capacity) {
+            this.tokens = capacity;
+            this.lastRefillMillis = System.currentTimeMillis();
+        }
+
+        private synchronized boolean tryAcquire(Limit limit) {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(limit.capacity, tokens + (now - lastRefillMillis) * limit.rate / 1000);
+            lastRefillMillis = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        localBuckets = CacheUtil.newLRUCache(localMaxSize);
+    }
+
+    /**
+     * 尝试为 key 取得一个令牌
+     * @return 是否放行
+     */
+    public boolean tryAcquire(RateLimit rule, String key) {
+        if (!enabled) {
+            return true;
+        }
+        Limit limit = limits.computeIfAbsent(rule.name(), name -> new Limit(
+                environment.getProperty("hmdp.rate-limit.limits." + name + ".capacity", Long.class, rule.capacity()),
+                environment.getProperty("hmdp.rate-limit.limits." + name + ".rate", Double.class, rule.rate())
+        ));
+        Counters stat = counters.computeIfAbsent(rule.name(), name -> new Counters());
+        String bucketKey = RATE_LIMIT_KEY + rule.name() + ":" + key;
+        // 本地预过滤
+        LocalBucket local = localBuckets.get(bucketKey, false);
+        if (local == null) {
+            local = new LocalBucket(limit.capacity);
+            localBuckets.put(bucketKey, local);
+        }
+        if (!local.tryAcquire(limit)) {
+            stat.rejectedLocal.increment();
+            return false;
+        }
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(
+                    RATE_LIMIT_SCRIPT, Collections.singletonList(bucketKey),
+                    String.valueOf(limit.capacity), String.valueOf(limit.rate)
+            );
+        } catch (Exception e) {
+            stat.errors.increment();
+            log.error("限流脚本执行失败，放行请求 {}", bucketKey, e);
+            return true;
+        }
+        if (result != null && result == 0) {
+            stat.rejectedRedis.increment();
+            return false;
+        }
+        stat.allowed.increment();
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        counters.forEach((name, c) -> {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            Limit limit = limits.get(name);
+            stat.put("capacity", limit.capacity);
+            stat.put("rate", limit.rate);
+            stat.put("allowed", c.allowed.sum());
+            stat.put("rejectedLocal", c.rejectedLocal.sum());
+            stat.put("rejectedRedis", c.rejectedRedis.sum());
+            stat.put("errors", c.errors.sum());
+            stats.put(name, stat);
+        });
+        return stats;
+    }
+}
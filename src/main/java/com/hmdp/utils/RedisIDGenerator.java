@@ -1,13 +1,25 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
 public class RedisIDGenerator {
     @Resource
@@ -15,14 +27,155 @@ public class RedisIDGenerator {
 
     private static final Long baseTime = 1577836800L;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    // 序列号的最高位区分分配方式：为 0 时由 nextID 分配，为 1 时由秒杀 Lua 脚本中的（分片）计数器分配，
+    // 两种方式使用不同的计数器与步长，同一秒内的序列号可能相同，划分位区间后 ID 不会重复
+    public static final long SCRIPT_SEQUENCE_BASE = 1L << 31;
+
+    // 号段模式：每个实例一次 INCRBY 预留一段序列号，在本地分配，不再为每个 ID 访问 Redis
+    @Value("${hmdp.id.segment.enabled:false}")
+    private boolean segmentEnabled;
+
+    @Value("${hmdp.id.segment.size:1000}")
+    private long segmentSize;
+
+    // 当前号段剩余不足该比例时在后台预取下一个号段
+    @Value("${hmdp.id.segment.prefetch-ratio:0.2}")
+    private double prefetchRatio;
+
+    // 前缀 -> 号段
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(
+            ThreadUtil.newNamedThreadFactory("id-segment-prefetch-", true)
+    );
+
+    // 号段 [next, end)，只在所属日期内使用，日期变化后必须从新一天的计数器重新预留，否则序列号会与新一天的 ID 重复
+    private static class Segment {
+        private final String date;
+        private final AtomicLong next;
+        private final long end;
+
+        private Segment(String date, long start, long end) {
+            this.date = date;
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private volatile Future<Segment> prefetched;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+    }
+
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    public boolean isSegmentEnabled() {
+        return segmentEnabled;
+    }
+
     /// ID 结构为：1位符号位（0，表示正数），31位时间戳（以秒为单位），32位序列号共64位（8个字节）
     public Long nextID(String prefix) {
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long dTime = nowSecond - baseTime;
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        long cnt = stringRedisTemplate.opsForValue().increment("icr:" + prefix + ":" + date);
-        return (cnt % (1L<<32)) | ((dTime % (1L<<31))<<32);
+        if (segmentEnabled) {
+            return compose(timestamp(now), nextInSegment(prefix, now));
+        }
+        long cnt = stringRedisTemplate.opsForValue().increment(counterKey(prefix, now));
+        return compose(timestamp(now), cnt);
+    }
+
+    private long nextInSegment(String prefix, LocalDateTime now) {
+        String date = now.format(DATE_FORMATTER);
+        SegmentBuffer buffer = buffers.computeIfAbsent(prefix, k -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.date.equals(date)) {
+                long cnt = segment.next.getAndIncrement();
+                if (cnt < segment.end) {
+                    if (segment.end - cnt <= Math.max(1, (long) (segmentSize * prefetchRatio))) {
+                        prefetch(prefix, now, buffer, segment);
+                    }
+                    return cnt;
+                }
+            }
+            // 号段用完或日期变化，切换到下一个号段
+            synchronized (buffer) {
+                if (buffer.current == segment) {
+                    buffer.current = takeNext(prefix, now, date, buffer);
+                    // 新号段生效后才允许再次预取
+                    buffer.prefetching.set(false);
+                }
+            }
+        }
+    }
+
+    // 优先使用预取的同一天的号段，否则同步预留
+    private Segment takeNext(String prefix, LocalDateTime now, String date, SegmentBuffer buffer) {
+        Future<Segment> prefetched = buffer.prefetched;
+        buffer.prefetched = null;
+        if (prefetched != null) {
+            try {
+                Segment segment = prefetched.get();
+                if (segment.date.equals(date)) {
+                    return segment;
+                }
+            } catch (Exception e) {
+                log.error("预取 ID 号段失败，同步预留", e);
+            }
+        }
+        return reserve(prefix, now);
+    }
+
+    // 每个号段只预取一次；已切换到下一个号段的线程不再为新号段预取，避免预取的号段被覆盖而浪费
+    private void prefetch(String prefix, LocalDateTime now, SegmentBuffer buffer, Segment segment) {
+        if (!buffer.prefetching.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (buffer) {
+            if (buffer.current == segment && buffer.prefetched == null) {
+                buffer.prefetched = prefetchExecutor.submit(() -> reserve(prefix, now));
+            } else if (buffer.current != segment) {
+                buffer.prefetching.set(false);
+            }
+        }
+    }
+
+    // INCRBY 预留 segmentSize 个序列号，与在 Lua 脚本中 INCR 同一计数器的调用方不会重复
+    private Segment reserve(String prefix, LocalDateTime now) {
+        Long end = stringRedisTemplate.opsForValue().increment(counterKey(prefix, now), segmentSize);
+        if (end == null) {
+            throw new IllegalStateException("预留 ID 号段失败");
+        }
+        return new Segment(now.format(DATE_FORMATTER), end - segmentSize + 1, end + 1);
+    }
+
+    // 相对 baseTime 的秒数，即 ID 的时间戳部分
+    public static long timestamp(LocalDateTime now) {
+        return now.toEpochSecond(ZoneOffset.UTC) - baseTime;
+    }
+
+    // 按天划分的序列号计数器 key，也供在 Lua 脚本中自增序列号的调用方使用
+    public static String counterKey(String prefix, LocalDateTime now) {
+        return "icr:" + prefix + ":" + now.format(DATE_FORMATTER);
+    }
+
+    // 由时间戳与序列号拼接 ID
+    public static long compose(long timestamp, long cnt) {
+        return (cnt % (1L<<32)) | ((timestamp % (1L<<31))<<32);
+    }
+
+    // 从 ID 中取出时间戳部分
+    public static long timestampOf(long id) {
+        return id >>> 32;
+    }
+
+    // 从 ID 中取出序列号部分
+    public static long sequenceOf(long id) {
+        return id & 0xFFFFFFFFL;
     }
 
     // 获得标准时间的时间戳
@@ -1,24 +1,19 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
+    private final LoginSessionCache loginSessionCache;
+    private final SignedTokenService signedTokenService;
 
-public class RefreshTokenInterceptor implements HandlerInterceptor {
-    private final StringRedisTemplate stringRedisTemplate;
-
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(LoginSessionCache loginSessionCache, SignedTokenService signedTokenService) {
+        this.loginSessionCache = loginSessionCache;
+        this.signedTokenService = signedTokenService;
     }
 
     @Override
@@ -31,23 +26,28 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
             return true;
         }
         // Object user = session.getAttribute("user");
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(LOGIN_USER_KEY + token);
+        // 签名令牌在本地验证；否则优先从本地会话缓存获取用户，未命中时查询 Redis，会话剩余有效期不足时刷新有效期
+        UserDTO userDTO = signedTokenService.isSigned(token)
+                ? signedTokenService.verify(token)
+                : loginSessionCache.get(token);
         // 校验用户
         // 用户不存在，拦截
         // if (user == null) {
-        if(userMap.isEmpty()) {
+        if (userDTO == null) {
             return true;
         }
-        // 将查询到的数据转为 UserDTO
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         // 用户存在，保存用户信息到 ThreadLocal
         // UserHolder.saveUser((UserDTO) user);
         UserHolder.saveUser(userDTO);
-        // 刷新 token 有效期
-        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
         return true;
     }
 
+    // 异步请求（如长轮询）释放请求线程时不会调用 afterCompletion，在这里清理 ThreadLocal
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        UserHolder.removeUser();
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
         UserHolder.removeUser();
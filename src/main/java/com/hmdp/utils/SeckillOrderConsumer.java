@@ -0,0 +1,526 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 秒杀订单消息队列（stream.orders，分片模式下每个分片一个队列）的消费者池。
+ * 每个实例启动 N 个消费者，消费者名称为 实例名-序号，每次批量读取最多 K 条消息，
+ * 整批处理后使用一次 XACK 确认全部成功的消息。
+ * 处理失败的消息留在 pending 列表中按指数退避重试，超过最大重试次数后转入死信队列 stream.orders.dlq。
+ * 生命周期由 Spring 管理：关闭时停止读取新消息并在期限内处理完正在处理的批次；数据库写入变慢时暂停读取（背压）。
+ */
+@Slf4j
+@Component
+public class SeckillOrderConsumer implements SmartLifecycle {
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 30 * 1000L;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private DataSource dataSource;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Value("${hmdp.seckill.consumer.count:4}")
+    private int consumerCount;
+
+    @Value("${hmdp.seckill.consumer.batch-size:50}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.consumer.block-millis:2000}")
+    private long blockMillis;
+
+    @Value("${hmdp.seckill.consumer.max-retries:5}")
+    private int maxRetries;
+
+    @Value("${hmdp.seckill.consumer.retry-backoff-millis:200}")
+    private long retryBackoffMillis;
+
+    @Value("${hmdp.seckill.consumer.claim-idle-millis:60000}")
+    private long claimIdleMillis;
+
+    @Value("${hmdp.seckill.consumer.shutdown-timeout-millis:10000}")
+    private long shutdownTimeoutMillis;
+
+    @Value("${hmdp.seckill.consumer.pause-latency-millis:500}")
+    private long pauseLatencyMillis;
+
+    @Value("${hmdp.seckill.consumer.pause-pool-waiters:5}")
+    private int pausePoolWaiters;
+
+    @Value("${hmdp.seckill.consumer.pause-millis:1000}")
+    private long pauseMillis;
+
+    @Value("${hmdp.seckill.consumer.instance-id:}")
+    private String instanceId;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    // 每个消费者在 XREADGROUP BLOCK 期间独占连接池中的一个连接
+    @Value("${spring.redis.lettuce.pool.max-active:8}")
+    private int redisPoolMaxActive;
+
+    private int consumers;
+    private ExecutorService consumerExecutor;
+    // stop() 后可能再次 start()，因此每次启动时重新创建
+    private ScheduledExecutorService statsExecutor;
+
+    // 消费统计
+    private final AtomicLong processedOrders = new AtomicLong();
+    private final AtomicLong failedOrders = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong deadLetters = new AtomicLong();
+    private long lastSampleProcessed;
+    private long lastSampleTime = System.currentTimeMillis();
+    private volatile double throughput;
+    private volatile long lagMillis;
+    private volatile long pendingCount;
+    private volatile long streamLength;
+    private volatile double writeLatencyMillis;
+    // 暂停后清空写入延迟，由恢复后的第一批消息重新测量
+    private volatile boolean reseedLatency;
+
+    // 暂停与恢复只在 RUNNING 与 PAUSED 之间 CAS 切换，不会覆盖 stop() 设置的 STOPPING
+    private final AtomicReference<State> state = new AtomicReference<>(State.STOPPED);
+    private volatile long pausedUntil;
+
+    public enum State { STOPPED, RUNNING, PAUSED, STOPPING }
+
+    @Override
+    public void start() {
+        // 实例名默认使用 主机名:端口，重启后沿用同一组消费者名称，可以继续处理自己遗留的 pending 消息
+        if (StrUtil.isBlank(instanceId)) {
+            instanceId = NetUtil.getLocalHostName() + ":" + serverPort;
+        }
+        // 分片模式下每个分片有独立的消息队列与消费组，消费者按序号轮流分配到各个分片，每个分片至少一个消费者
+        List<String> streamKeys = seckillStockShards.streamKeys();
+        consumers = Math.max(consumerCount, streamKeys.size());
+        // 阻塞读取的消费者最多占用 Redis 连接池的一半，其余连接留给秒杀请求、缓存与限流
+        if (consumers * 2 > redisPoolMaxActive) {
+            throw new IllegalStateException(String.format(
+                    "秒杀订单消费者数量 %d 超过 Redis 连接池最大连接数 %d 的一半，请调大 spring.redis.lettuce.pool.max-active 或调小 hmdp.seckill.consumer.count",
+                    consumers, redisPoolMaxActive));
+        }
+        streamKeys.forEach(this::createGroupIfAbsent);
+        consumerExecutor = Executors.newFixedThreadPool(
+                consumers, ThreadUtil.newNamedThreadFactory("seckill-order-consumer-", false)
+        );
+        state.set(State.RUNNING);
+        for (int i = 0; i < consumers; i++) {
+            consumerExecutor.submit(new VoucherOrderHandler(streamKeys.get(i % streamKeys.size()), instanceId + "-" + i));
+        }
+        statsExecutor = Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-order-stats-", true));
+        statsExecutor.scheduleAtFixedRate(this::sampleStats, 10, 10, TimeUnit.SECONDS);
+        log.info("秒杀订单消费者启动，实例 {}，消费者数量 {}，队列 {}，批大小 {}", instanceId, consumers, streamKeys, batchSize);
+    }
+
+    // 停止读取新消息，等待正在处理的批次完成并 ACK，超过期限后中断消费者线程，未 ACK 的消息留在 pending 列表中
+    @Override
+    public void stop() {
+        state.set(State.STOPPING);
+        consumerExecutor.shutdown();
+        try {
+            if (!consumerExecutor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("秒杀订单消费者未能在 {} ms 内停止，强制中断", shutdownTimeoutMillis);
+                consumerExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            consumerExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        statsExecutor.shutdown();
+        state.set(State.STOPPED);
+        log.info("秒杀订单消费者已停止");
+    }
+
+    @Override
+    public boolean isRunning() {
+        State current = state.get();
+        return current == State.RUNNING || current == State.PAUSED;
+    }
+
+    private boolean isActive() {
+        return isRunning() && !Thread.currentThread().isInterrupted();
+    }
+
+    public State state() {
+        return state.get();
+    }
+
+    // 背压：数据库写入延迟或连接池等待线程数超过阈值时，暂停读取新消息一段时间。
+    // 暂停期间没有批次写入，延迟不会自行下降，因此暂停时清空延迟，恢复后由第一批消息重新测量，仍然很慢则再次暂停
+    boolean shouldPause() {
+        long now = System.currentTimeMillis();
+        if (now < pausedUntil) {
+            return true;
+        }
+        int waiters = threadsAwaitingConnection();
+        double latency = writeLatencyMillis;
+        if (latency > pauseLatencyMillis || waiters > pausePoolWaiters) {
+            pausedUntil = now + pauseMillis;
+            writeLatencyMillis = 0;
+            reseedLatency = true;
+            if (state.compareAndSet(State.RUNNING, State.PAUSED)) {
+                log.warn("数据库写入延迟 {} ms，连接池等待线程 {}，暂停消费 {} ms",
+                        String.format("%.1f", latency), waiters, pauseMillis);
+            }
+            return true;
+        }
+        state.compareAndSet(State.PAUSED, State.RUNNING);
+        return false;
+    }
+
+    // 按批次记录数据库写入延迟（指数加权平均），暂停后的第一批直接作为新的初始值
+    void recordWriteLatency(double latencyMillis) {
+        if (reseedLatency) {
+            reseedLatency = false;
+            writeLatencyMillis = latencyMillis;
+        } else {
+            writeLatencyMillis = writeLatencyMillis * 0.8 + latencyMillis * 0.2;
+        }
+    }
+
+    private int threadsAwaitingConnection() {
+        if (dataSource instanceof HikariDataSource) {
+            HikariPoolMXBean pool = ((HikariDataSource) dataSource).getHikariPoolMXBean();
+            return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+        }
+        return 0;
+    }
+
+    // XGROUP CREATE streamKey g1 0 MKSTREAM，消费组已存在时忽略
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    ((StringRedisConnection) connection).xGroupCreate(streamKey, ReadOffset.from("0"), SECKILL_ORDER_GROUP, true)
+            );
+            log.info("创建消费组 {} {}", streamKey, SECKILL_ORDER_GROUP);
+        } catch (Exception e) {
+            if (!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private class VoucherOrderHandler implements Runnable {
+        private final String streamKey;
+        private final Consumer consumer;
+        // pending 消息的重试状态：启动时先处理本消费者遗留的 pending 消息
+        private boolean hasPending = true;
+        private int retryAttempt;
+        private long nextPendingRetryAt;
+        private long nextClaimAt;
+
+        private VoucherOrderHandler(String streamKey, String consumerName) {
+            this.streamKey = streamKey;
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, consumerName);
+        }
+
+        @Override
+        public void run() {
+            while (isActive()) {
+                try {
+                    if (shouldPause()) {
+                        ThreadUtil.sleep(Math.min(pauseMillis, blockMillis));
+                        continue;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now >= nextClaimAt) {
+                        claimIdlePending();
+                        nextClaimAt = now + claimIdleMillis / 2;
+                    }
+                    // pending 消息按退避时间重试，未到重试时间时继续消费新消息，不会阻塞新订单
+                    if (hasPending && now >= nextPendingRetryAt) {
+                        handlePendingList();
+                    }
+                    // XREADGROUP GROUP g1 consumer COUNT K BLOCK 2000 STREAMS streamKey >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            consumer,
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis)),
+                            StreamOffset.create(streamKey, ReadOffset.lastConsumed())
+                    );
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    if (!handleRecords(streamKey, list)) {
+                        hasPending = true;
+                    }
+                } catch (Exception e) {
+                    log.error("处理订单异常", e);
+                    hasPending = true;
+                    backoff();
+                    ThreadUtil.sleep(Math.min(nextPendingRetryAt - System.currentTimeMillis(), blockMillis));
+                }
+            }
+        }
+
+        // 遍历一遍本消费者的 pending 列表，超过最大重试次数的消息转入死信队列
+        private void handlePendingList() {
+            boolean failed = false;
+            String cursor = "0";
+            try {
+                while (isActive()) {
+                    // XREADGROUP GROUP g1 consumer COUNT K STREAMS streamKey cursor
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            consumer,
+                            StreamReadOptions.empty().count(batchSize),
+                            StreamOffset.create(streamKey, ReadOffset.from(cursor))
+                    );
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    cursor = list.get(list.size() - 1).getId().getValue();
+                    // XPENDING streamKey g1 first last count consumer，查询每条消息的投递次数
+                    PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(
+                            streamKey, consumer,
+                            Range.closed(list.get(0).getId().getValue(), cursor), list.size()
+                    );
+                    Map<RecordId, Long> deliveries = new HashMap<>(pendingMessages.size());
+                    for (PendingMessage pendingMessage : pendingMessages) {
+                        deliveries.put(pendingMessage.getId(), pendingMessage.getTotalDeliveryCount());
+                    }
+                    List<MapRecord<String, Object, Object>> retries = new ArrayList<>(list.size());
+                    for (MapRecord<String, Object, Object> record : list) {
+                        // 本次读取也计入投递次数，之前已经处理过 count - 1 次，其中第一次不算重试
+                        long retried = deliveries.getOrDefault(record.getId(), 0L) - 2;
+                        if (retried >= maxRetries) {
+                            deadLetter(streamKey, record, "重试 " + retried + " 次后仍然失败");
+                        } else {
+                            retries.add(record);
+                        }
+                    }
+                    if (!retries.isEmpty() && !handleRecords(streamKey, retries)) {
+                        failed = true;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("处理 pending 订单异常", e);
+                failed = true;
+            }
+            if (failed) {
+                backoff();
+            } else {
+                hasPending = false;
+                retryAttempt = 0;
+            }
+        }
+
+        // 指数退避：base * 2^n，最大 30 秒
+        private void backoff() {
+            long delay = Math.min(retryBackoffMillis << Math.min(retryAttempt, 16), MAX_RETRY_BACKOFF_MILLIS);
+            retryAttempt++;
+            nextPendingRetryAt = System.currentTimeMillis() + delay;
+        }
+
+        // 按 id 分页遍历整个 pending 列表，认领其他消费者（例如已经宕机的实例）空闲超过阈值的 pending 消息，
+        // 之后按本消费者的 pending 消息处理
+        private void claimIdlePending() {
+            String start = "-";
+            int total = 0;
+            while (isActive()) {
+                // XPENDING streamKey g1 start + count
+                PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(
+                        streamKey, SECKILL_ORDER_GROUP, Range.rightUnbounded(Range.Bound.inclusive(start)), batchSize);
+                if (pendingMessages.isEmpty()) {
+                    break;
+                }
+                List<RecordId> idle = new ArrayList<>();
+                RecordId last = null;
+                for (PendingMessage pendingMessage : pendingMessages) {
+                    last = pendingMessage.getId();
+                    if (!consumer.getName().equals(pendingMessage.getConsumerName())
+                            && pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdleMillis) {
+                        idle.add(pendingMessage.getId());
+                    }
+                }
+                if (!idle.isEmpty()) {
+                    // XCLAIM streamKey g1 consumer minIdle id... JUSTID，min-idle 保证不会与其他实例重复认领
+                    List<RecordId> claimed = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                            connection.streamCommands().xClaimJustId(
+                                    streamKey.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, consumer.getName(),
+                                    RedisStreamCommands.XClaimOptions.minIdleMs(claimIdleMillis).ids(idle)
+                            ));
+                    if (claimed != null) {
+                        total += claimed.size();
+                    }
+                }
+                if (pendingMessages.size() < batchSize) {
+                    break;
+                }
+                // 下一页从最后一条消息的下一个 id 开始
+                start = RecordId.of(last.getTimestamp(), last.getSequence() + 1).getValue();
+            }
+            if (total > 0) {
+                log.info("消费者 {} 认领空闲 pending 订单 {} 条", consumer.getName(), total);
+                hasPending = true;
+                nextPendingRetryAt = 0;
+            }
+        }
+    }
+
+    // 将消息转入死信队列并确认原消息
+    private void deadLetter(String streamKey, MapRecord<String, Object, Object> record, String reason) {
+        Map<Object, Object> values = new LinkedHashMap<>(record.getValue());
+        values.put("sourceStream", streamKey);
+        values.put("sourceId", record.getId().getValue());
+        values.put("reason", reason);
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ, values);
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, record.getId());
+        deadLetters.incrementAndGet();
+        try {
+            seckillOrderStatus.markFailed(toVoucherOrder(record.getValue()));
+        } catch (Exception e) {
+            log.warn("无法记录死信订单 {} 的结果", record.getId());
+        }
+        log.error("订单消息 {} 转入死信队列：{}", record.getId(), reason);
+    }
+
+    // 批量处理一批消息，并用一次 XACK 确认全部处理完成的消息，全部成功时返回 true
+    private boolean handleRecords(String streamKey, List<MapRecord<String, Object, Object>> records) {
+        Map<Long, RecordId> recordIds = new HashMap<>(records.size());
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            VoucherOrder order;
+            try {
+                order = toVoucherOrder(record.getValue());
+            } catch (Exception e) {
+                // 无法解析的消息重试也不会成功，直接转入死信队列
+                deadLetter(streamKey, record, "消息格式错误：" + e.getMessage());
+                continue;
+            }
+            recordIds.put(order.getId(), record.getId());
+            orders.add(order);
+        }
+        if (orders.isEmpty()) {
+            return true;
+        }
+        long begin = System.nanoTime();
+        Map<Long, SeckillOrderStatus.Status> results = voucherOrderService.handleVoucherOrders(orders);
+        recordWriteLatency((System.nanoTime() - begin) / 1_000_000.0);
+        if (!results.isEmpty()) {
+            RecordId[] ackIds = results.keySet().stream().map(recordIds::get).toArray(RecordId[]::new);
+            // XACK streamKey g1 id1 id2 ...
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, ackIds);
+            // 只有实际插入的订单为 CREATED，重复订单为 DUPLICATE，库存不足为 FAILED
+            seckillOrderStatus.mark(orders, results);
+        }
+        batches.incrementAndGet();
+        processedOrders.addAndGet(results.size());
+        failedOrders.addAndGet(orders.size() - results.size());
+        return results.size() == orders.size();
+    }
+
+    private VoucherOrder toVoucherOrder(Map<Object, Object> values) {
+        VoucherOrder order = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
+        // 新消息只携带订单 id 的时间戳与序列号，由二者拼接出订单 id
+        if (order.getId() == null) {
+            long timestamp = Long.parseLong(values.get("timestamp").toString());
+            long seq = Long.parseLong(values.get("seq").toString());
+            order.setId(RedisIDGenerator.compose(timestamp, seq));
+        }
+        return order;
+    }
+
+    // 定时采样消费速率与积压情况
+    private void sampleStats() {
+        try {
+            long now = System.currentTimeMillis();
+            long processed = processedOrders.get();
+            throughput = (processed - lastSampleProcessed) * 1000.0 / Math.max(1, now - lastSampleTime);
+            lastSampleProcessed = processed;
+            lastSampleTime = now;
+
+            // 分片模式下汇总各个分片的队列长度与 pending 数量，积压时间取最大值
+            long length = 0, pending = 0, lag = 0;
+            for (String streamKey : seckillStockShards.streamKeys()) {
+                length += Optional.ofNullable(stringRedisTemplate.opsForStream().size(streamKey)).orElse(0L);
+                String lastDeliveredId = null;
+                StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+                for (int i = 0; i < groups.size(); i++) {
+                    StreamInfo.XInfoGroup group = groups.get(i);
+                    if (SECKILL_ORDER_GROUP.equals(group.groupName())) {
+                        pending += group.pendingCount();
+                        lastDeliveredId = group.lastDeliveredId();
+                    }
+                }
+                // 积压时间 = 最新消息的时间戳 - 消费组最后投递消息的时间戳
+                List<MapRecord<String, Object, Object>> newest = stringRedisTemplate.opsForStream()
+                        .reverseRange(streamKey, Range.unbounded(), Limit.limit().count(1));
+                if (lastDeliveredId != null && newest != null && !newest.isEmpty()) {
+                    long newestTime = newest.get(0).getId().getTimestamp();
+                    long deliveredTime = RecordId.of(lastDeliveredId).getTimestamp();
+                    lag = Math.max(lag, newestTime - deliveredTime);
+                }
+            }
+            streamLength = length;
+            pendingCount = pending;
+            lagMillis = lag;
+            log.debug("秒杀订单消费速率 {}/s，积压 {} ms，pending {}，队列长度 {}",
+                    String.format("%.1f", throughput), lagMillis, pendingCount, streamLength);
+        } catch (Exception e) {
+            log.error("采样秒杀订单消费统计异常", e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("instanceId", instanceId);
+        stats.put("state", state.get());
+        stats.put("consumers", consumers);
+        stats.put("batchSize", batchSize);
+        stats.put("processedOrders", processedOrders.get());
+        stats.put("failedOrders", failedOrders.get());
+        stats.put("batches", batches.get());
+        stats.put("deadLetters", deadLetters.get());
+        stats.put("throughputPerSecond", throughput);
+        stats.put("lagMillis", lagMillis);
+        stats.put("pendingCount", pendingCount);
+        stats.put("streamLength", streamLength);
+        stats.put("writeLatencyMillis", writeLatencyMillis);
+        stats.put("threadsAwaitingConnection", threadsAwaitingConnection());
+        return stats;
+    }
+}
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_TTL;
+
+/**
+ * 秒杀订单的处理结果。订单消费者写入结果，客户端通过订单 id 查询，无需访问数据库。
+ * 结果按订单 id 中的时间戳每分钟一个 hash（seckill:order:status:分钟数），field 为订单 id，value 为 状态码:用户 id，
+ * 小 hash 使用紧凑编码存储，整个 hash 在 30 分钟后过期。
+ * 秒杀成功但尚未写入结果的订单即为处理中，因此下单时无需额外写一次 Redis。
+ * 只有下单用户可以看到订单的结果，其他用户查询时与不存在的订单相同（保留期内为处理中，之后为未知）。
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatus {
+
+    // 状态码为枚举序号，新增状态只能追加在末尾
+    public enum Status {
+        PENDING, CREATED, FAILED, UNKNOWN,
+        // 同一用户已经购买过该优惠券，本订单未创建
+        DUPLICATE;
+
+        public boolean isFinal() {
+            return this == CREATED || this == FAILED || this == DUPLICATE;
+        }
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.seckill.order-status.poll-interval-millis:100}")
+    private long pollIntervalMillis;
+
+    @Value("${hmdp.seckill.order-status.max-wait-millis:30000}")
+    private long maxWaitMillis;
+
+    // 等待结果的长轮询请求，由后台线程批量查询 Redis 后完成
+    private final Map<Long, List<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    private static class Waiter {
+        private final Long userId;
+        private final DeferredResult<Result> result;
+
+        private Waiter(Long userId, DeferredResult<Result> result) {
+            this.userId = userId;
+            this.result = result;
+        }
+    }
+    private final ScheduledExecutorService pollExecutor = Executors.newSingleThreadScheduledExecutor(
+            ThreadUtil.newNamedThreadFactory("seckill-order-status-", true)
+    );
+
+    @PostConstruct
+    private void init() {
+        pollExecutor.scheduleWithFixedDelay(this::pollWaiters, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        pollExecutor.shutdownNow();
+    }
+
+    private static String key(long orderId) {
+        return SECKILL_ORDER_STATUS_KEY + RedisIDGenerator.timestampOf(orderId) / 60;
+    }
+
+    public void markFailed(VoucherOrder order) {
+        write(Collections.singletonMap(order.getId(), value(Status.FAILED, order.getUserId())));
+    }
+
+    /**
+     * 记录一批订单的处理结果
+     * @param orders 这批订单，用于取得下单用户
+     * @param results 订单 id -> 结果，不在其中的订单不记录
+     */
+    public void mark(Collection<VoucherOrder> orders, Map<Long, Status> results) {
+        Map<Long, String> values = new HashMap<>(results.size());
+        for (VoucherOrder order : orders) {
+            Status status = results.get(order.getId());
+            if (status != null) {
+                values.put(order.getId(), value(status, order.getUserId()));
+            }
+        }
+        write(values);
+    }
+
+    private static String value(Status status, Long userId) {
+        return status.ordinal() + ":" + userId;
+    }
+
+    // 每个订单只记录第一次的结果（HSETNX），重复投递的消息不会覆盖已有结果
+    private void write(Map<Long, String> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        Set<String> keys = new HashSet<>();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            values.forEach((orderId, value) -> {
+                String key = key(orderId);
+                conn.hSetNX(key, orderId.toString(), value);
+                if (keys.add(key)) {
+                    conn.expire(key, TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL));
+                }
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 查询订单结果，userId 不是下单用户时按没有结果处理
+     */
+    public Status get(Long orderId, Long userId) {
+        Object value = stringRedisTemplate.opsForHash().get(key(orderId), orderId.toString());
+        return toStatus(orderId, value, userId);
+    }
+
+    // 没有结果（或不是下单用户）时，结果保留期内的订单视为处理中，更早的订单结果已过期，视为未知
+    static Status toStatus(Long orderId, Object value, Long userId) {
+        if (value != null) {
+            String s = value.toString();
+            int colon = s.indexOf(':');
+            if (colon > 0 && s.substring(colon + 1).equals(String.valueOf(userId))) {
+                return Status.values()[Integer.parseInt(s.substring(0, colon))];
+            }
+        }
+        long age = RedisIDGenerator.timestamp(LocalDateTime.now()) - RedisIDGenerator.timestampOf(orderId);
+        return age >= 0 && age < TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL) ? Status.PENDING : Status.UNKNOWN;
+    }
+
+    /**
+     * 长轮询查询订单结果：订单仍在处理中时挂起请求，直到有结果或超时，超时返回 PENDING
+     * @param waitMillis 最长等待时间，为 0 时立即返回
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId, long waitMillis) {
+        long timeout = Math.min(Math.max(waitMillis, 0), maxWaitMillis);
+        DeferredResult<Result> result = new DeferredResult<>(timeout > 0 ? timeout : null, () -> Result.ok(Status.PENDING));
+        Status status = get(orderId, userId);
+        if (status != Status.PENDING || timeout == 0) {
+            result.setResult(Result.ok(status));
+            return result;
+        }
+        Waiter waiter = new Waiter(userId, result);
+        List<Waiter> list = waiters.computeIfAbsent(orderId, k -> new CopyOnWriteArrayList<>());
+        list.add(waiter);
+        result.onCompletion(() -> waiters.computeIfPresent(orderId, (k, v) -> {
+            v.remove(waiter);
+            return v.isEmpty() ? null : v;
+        }));
+        return result;
+    }
+
+    // 一次 pipeline 查询所有等待中订单的结果
+    private void pollWaiters() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        try {
+            List<Long> orderIds = new ArrayList<>(waiters.keySet());
+            List<Object> codes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Long orderId : orderIds) {
+                    conn.hGet(key(orderId), orderId.toString());
+                }
+                return null;
+            });
+            for (int i = 0; i < orderIds.size(); i++) {
+                List<Waiter> list = waiters.get(orderIds.get(i));
+                if (list == null) {
+                    continue;
+                }
+                for (Waiter waiter : list) {
+                    Status status = toStatus(orderIds.get(i), codes.get(i), waiter.userId);
+                    if (status != Status.PENDING) {
+                        waiter.result.setResult(Result.ok(status));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("查询订单结果异常", e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 定时修剪订单消息队列，避免 stream.orders 无限增长。
+ * min-acked：删除消费组已经投递并确认的消息（XTRIM MINID ~ 最早未确认的消息 id）；
+ * maxlen：只保留最近的约 N 条消息（XTRIM MAXLEN ~ N）。
+ */
+@Slf4j
+@Component
+public class SeckillOrderStreamTrimmer {
+    private static final DefaultRedisScript<Long> STREAM_TRIM_SCRIPT;
+    static {
+        STREAM_TRIM_SCRIPT = new DefaultRedisScript<>();
+        STREAM_TRIM_SCRIPT.setLocation(new ClassPathResource("streamTrim.lua"));
+        STREAM_TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Value("${hmdp.seckill.stream.trim-strategy:min-acked}")
+    private String trimStrategy;
+
+    @Value("${hmdp.seckill.stream.max-len:100000}")
+    private long maxLen;
+
+    @Value("${hmdp.seckill.stream.trim-interval-seconds:60}")
+    private long trimIntervalSeconds;
+
+    private final ScheduledExecutorService trimExecutor =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-order-trim-", true));
+
+    private final AtomicLong trimmedEntries = new AtomicLong();
+    private final Map<String, Long> streamLengths = new LinkedHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        trimExecutor.scheduleWithFixedDelay(this::trim, trimIntervalSeconds, trimIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void trim() {
+        for (String streamKey : seckillStockShards.streamKeys()) {
+            try {
+                Long trimmed;
+                if ("maxlen".equals(trimStrategy)) {
+                    trimmed = xTrim(streamKey, "MAXLEN", String.valueOf(maxLen));
+                } else {
+                    String minId = minUnacknowledgedId(streamKey);
+                    trimmed = minId == null ? 0L : xTrim(streamKey, "MINID", minId);
+                }
+                trimmedEntries.addAndGet(trimmed == null ? 0 : trimmed);
+                long length = Optional.ofNullable(stringRedisTemplate.opsForStream().size(streamKey)).orElse(0L);
+                synchronized (streamLengths) {
+                    streamLengths.put(streamKey, length);
+                }
+                log.debug("修剪订单消息队列 {}，删除 {} 条，剩余 {} 条", streamKey, trimmed, length);
+            } catch (Exception e) {
+                log.error("修剪订单消息队列 {} 异常", streamKey, e);
+            }
+        }
+    }
+
+    private Long xTrim(String streamKey, String strategy, String threshold) {
+        return stringRedisTemplate.execute(STREAM_TRIM_SCRIPT, Collections.singletonList(streamKey), strategy, threshold);
+    }
+
+    // 消费组仍然需要的最早的消息 id：有 pending 消息时为最早的 pending 消息，否则为最后投递的消息
+    private String minUnacknowledgedId(String streamKey) {
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+        String lastDeliveredId = null;
+        for (int i = 0; i < groups.size(); i++) {
+            if (SECKILL_ORDER_GROUP.equals(groups.get(i).groupName())) {
+                lastDeliveredId = groups.get(i).lastDeliveredId();
+            }
+        }
+        if (lastDeliveredId == null) {
+            return null;
+        }
+        PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, SECKILL_ORDER_GROUP);
+        if (summary != null && summary.getTotalPendingMessages() > 0) {
+            return summary.minMessageId();
+        }
+        return lastDeliveredId;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trimStrategy", trimStrategy);
+        stats.put("trimmedEntries", trimmedEntries.get());
+        synchronized (streamLengths) {
+            stats.put("streamLengths", new LinkedHashMap<>(streamLengths));
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地售罄标记。Lua 脚本返回库存不足后在本地标记，并通过 Redis 发布订阅通知其他实例，
+ * 之后该优惠券的请求直接在内存中拒绝，不再访问 Redis。
+ * 标记在一段时间后过期，过期后放行请求到 Redis 重新确认；库存被重新加载或补充时通过同一频道广播清除标记。
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutFlag {
+    // 清除标记的消息格式为 clear:优惠券id，标记售罄的消息为 优惠券id
+    private static final String CLEAR_PREFIX = "clear:";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.seckill.sold-out-ttl-seconds:30}")
+    private long ttlSeconds;
+
+    // 优惠券 id -> 标记过期时间
+    private final Map<Long, Long> soldOutUntil = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (body.startsWith(CLEAR_PREFIX)) {
+                soldOutUntil.remove(Long.valueOf(body.substring(CLEAR_PREFIX.length())));
+            } else {
+                soldOutUntil.put(Long.valueOf(body), expireAt());
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    private long expireAt() {
+        return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long until = soldOutUntil.get(voucherId);
+        if (until == null) {
+            return false;
+        }
+        if (until > System.currentTimeMillis()) {
+            return true;
+        }
+        soldOutUntil.remove(voucherId, until);
+        return false;
+    }
+
+    public void markSoldOut(Long voucherId) {
+        // 已经标记过且未过期则无需重复广播
+        Long previous = soldOutUntil.put(voucherId, expireAt());
+        if (previous == null || previous <= System.currentTimeMillis()) {
+            log.debug("优惠券 {} 已售罄", voucherId);
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+        }
+    }
+
+    /**
+     * 清除所有实例中该优惠券的售罄标记，在库存重新加载或补充后调用
+     */
+    public void clearSoldOut(Long voucherId) {
+        soldOutUntil.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, CLEAR_PREFIX + voucherId);
+    }
+}
@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存分片。分片数为 1 时沿用原有的 key；分片数大于 1 时，
+ * 每个分片的库存、已下单用户集合、订单消息队列与订单序列号计数器使用相同的 hash tag {s分片号}，
+ * 保证同一分片的 key 位于同一个 slot，而同一优惠券的不同分片分散到不同的 slot。
+ */
+@Component
+public class SeckillStockShards {
+
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int shards;
+
+    public int shards() {
+        return Math.max(1, shards);
+    }
+
+    public boolean isSharded() {
+        return shards() > 1;
+    }
+
+    // 用户所属的分片，用户的下单记录（一人一单）只保存在该分片中
+    public int homeShard(Long userId) {
+        return (int) Math.floorMod(userId, (long) shards());
+    }
+
+    private String tag(int shard) {
+        return "{s" + shard + "}";
+    }
+
+    public String stockKey(Long voucherId, int shard) {
+        return isSharded() ? SECKILL_STOCK_KEY + tag(shard) + ":" + voucherId : SECKILL_STOCK_KEY + voucherId;
+    }
+
+    public String orderKey(Long voucherId, int shard) {
+        return isSharded() ? SECKILL_ORDER_KEY + tag(shard) + ":" + voucherId : SECKILL_ORDER_KEY + voucherId;
+    }
+
+    public String streamKey(int shard) {
+        return isSharded() ? SECKILL_ORDER_STREAM + ":" + tag(shard) : SECKILL_ORDER_STREAM;
+    }
+
+    public List<String> streamKeys() {
+        List<String> keys = new ArrayList<>(shards());
+        for (int i = 0; i < shards(); i++) {
+            keys.add(streamKey(i));
+        }
+        return keys;
+    }
+
+    // 订单序列号计数器，分片模式下每个分片独立计数，序列号为 计数 * 分片数 + 分片号，保证不同分片的订单 id 不重复
+    public String counterKey(int shard, LocalDateTime now) {
+        return RedisIDGenerator.counterKey(isSharded() ? "order:" + tag(shard) : "order", now);
+    }
+
+    // 将库存平均拆分到各个分片，余数分给前面的分片
+    public int[] splitStock(int stock) {
+        int[] split = new int[shards()];
+        Arrays.fill(split, stock / shards());
+        for (int i = 0; i < stock % shards(); i++) {
+            split[i]++;
+        }
+        return split;
+    }
+}
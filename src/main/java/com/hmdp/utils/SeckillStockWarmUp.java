@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SecKillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 秒杀库存预热：从 MySQL 重建 Redis 中的秒杀库存与已下单用户集合。
+ * 启动时执行一次，也可以通过管理接口 POST /admin/seckill/warm-up 手动触发。按主键游标分页读取未结束的秒杀券，再按索引逐张读取这些秒杀券的订单，
+ * 每页通过一次 pipeline 写入 Redis。每页先重建已下单用户集合再写入库存，预热后清除各实例的售罄标记。
+ */
+@Slf4j
+@Component
+public class SeckillStockWarmUp {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private SeckillVoucherLocalCache seckillVoucherLocalCache;
+
+    @Resource
+    private SeckillSoldOutFlag seckillSoldOutFlag;
+
+    @Value("${hmdp.seckill.warm-up.on-startup:true}")
+    private boolean onStartup;
+
+    @Value("${hmdp.seckill.warm-up.page-size:1000}")
+    private int pageSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!onStartup) {
+            return;
+        }
+        // 预热失败不影响启动，可以之后通过接口重新触发
+        try {
+            warmUp(false);
+        } catch (Exception e) {
+            log.error("秒杀库存预热失败", e);
+        }
+    }
+
+    /**
+     * 重建秒杀库存与已下单用户集合
+     * @param overwrite 是否覆盖 Redis 中已存在的库存。为 false 时只补齐缺失的库存 key；
+     *                  为 true 时以数据库库存为准。MySQL 中的库存落后于订单消息队列的消费进度，
+     *                  只能在订单消息队列已经消费完（没有未读与 pending 消息）且暂停秒杀时使用，否则会超卖
+     * @return 预热的秒杀券数量、订单数量与耗时
+     */
+    public Map<String, Object> warmUp(boolean overwrite) {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("秒杀库存预热正在进行中");
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            long vouchers = 0;
+            long orders = 0;
+            long lastId = 0;
+            // 按 voucher_id 游标分页读取未结束的秒杀券
+            while (true) {
+                List<SecKillVoucher> page = seckillVoucherService.query()
+                        .gt("voucher_id", lastId)
+                        .gt("end_time", LocalDateTime.now())
+                        .orderByAsc("voucher_id")
+                        .last("LIMIT " + pageSize)
+                        .list();
+                if (page.isEmpty()) {
+                    break;
+                }
+                // 先重建已下单用户集合再写入库存：库存先恢复时，Lua 脚本会让已经下过单的用户再次获得资格，
+                // 这些重复订单占用恢复的库存，之后又被消费者作为重复订单丢弃
+                orders += warmUpOrders(page);
+                warmUpStock(page, overwrite);
+                vouchers += page.size();
+                lastId = page.get(page.size() - 1).getVoucherId();
+                log.debug("秒杀库存预热进度：秒杀券 {} 张，订单 {} 条", vouchers, orders);
+            }
+            long duration = System.currentTimeMillis() - begin;
+            log.info("秒杀库存预热完成，秒杀券 {} 张，订单 {} 条，耗时 {} ms", vouchers, orders, duration);
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("vouchers", vouchers);
+            report.put("orders", orders);
+            report.put("durationMillis", duration);
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    // 重建一页秒杀券的库存
+    private void warmUpStock(List<SecKillVoucher> vouchers, boolean overwrite) {
+        RedisStringCommands.SetOption option = overwrite
+                ? RedisStringCommands.SetOption.upsert()
+                : RedisStringCommands.SetOption.ifAbsent();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (SecKillVoucher voucher : vouchers) {
+                int[] stocks = seckillStockShards.splitStock(voucher.getStock());
+                for (int i = 0; i < stocks.length; i++) {
+                    conn.set(seckillStockShards.stockKey(voucher.getVoucherId(), i),
+                            String.valueOf(stocks[i]), Expiration.persistent(), option);
+                }
+            }
+            return null;
+        });
+        for (SecKillVoucher voucher : vouchers) {
+            seckillVoucherLocalCache.put(voucher);
+            // 库存可能被重新写入，清除各实例的售罄标记，由 Redis 中的库存重新判断
+            seckillSoldOutFlag.clearSoldOut(voucher.getVoucherId());
+        }
+    }
+
+    // 逐张秒杀券按 user_id 游标分页读取订单（走 idx_voucher_user 覆盖索引），重建已下单用户集合
+    private long warmUpOrders(List<SecKillVoucher> vouchers) {
+        long count = 0;
+        for (SecKillVoucher voucher : vouchers) {
+            Long voucherId = voucher.getVoucherId();
+            long lastUserId = 0;
+            while (true) {
+                List<VoucherOrder> orders = voucherOrderService.query()
+                        .select("user_id")
+                        .eq("voucher_id", voucherId)
+                        .gt("user_id", lastUserId)
+                        .orderByAsc("user_id")
+                        .last("LIMIT " + pageSize)
+                        .list();
+                if (orders.isEmpty()) {
+                    break;
+                }
+                // 按 已下单用户集合 key 分组，每个 key 一次 SADD
+                Map<String, List<String>> usersByKey = new HashMap<>();
+                for (VoucherOrder order : orders) {
+                    int shard = seckillStockShards.homeShard(order.getUserId());
+                    usersByKey.computeIfAbsent(seckillStockShards.orderKey(voucherId, shard), k -> new ArrayList<>())
+                            .add(order.getUserId().toString());
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    usersByKey.forEach((key, users) -> conn.sAdd(key, users.toArray(new String[0])));
+                    return null;
+                });
+                count += orders.size();
+                lastUserId = orders.get(orders.size() - 1).getUserId();
+                if (orders.size() < pageSize) {
+                    break;
+                }
+            }
+            log.debug("秒杀库存预热进度：秒杀券 {} 订单 {} 条", voucherId, count);
+        }
+        return count;
+    }
+}
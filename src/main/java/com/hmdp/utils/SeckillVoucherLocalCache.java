@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.entity.SecKillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀券元数据（秒杀时间窗口、库存 key 是否存在）的本地缓存。
+ * 在启动时与新增秒杀券时加载，秒杀请求先在本地校验，不存在、未开始或已结束的秒杀券无需访问 Redis 即可拒绝。
+ * 缓存定期从数据库整体刷新，其他实例修改的秒杀时间在一个刷新周期内生效，已结束或已删除的秒杀券被移出缓存。
+ */
+@Slf4j
+@Component
+public class SeckillVoucherLocalCache {
+    // 不存在的秒杀券与库存未加载的秒杀券的本地缓存时间
+    private static final long MISSING_TTL_MILLIS = 60 * 1000L;
+    private static final long STOCK_RETRY_MILLIS = 1000L;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Value("${hmdp.seckill.voucher-cache.refresh-seconds:30}")
+    private long refreshSeconds;
+
+    private final Map<Long, SecKillVoucher> vouchers = new ConcurrentHashMap<>();
+    // 库存 key 不存在的秒杀券，到期后放行一次请求重新探测
+    private final Map<Long, Long> stockMissingUntil = new ConcurrentHashMap<>();
+    private final LRUCache<Long, Boolean> missingVouchers = CacheUtil.newLRUCache(10000, MISSING_TTL_MILLIS);
+    private final ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor(
+            ThreadUtil.newNamedThreadFactory("seckill-voucher-refresh-", true)
+    );
+
+    @PostConstruct
+    private void init() {
+        // 预加载所有未结束的秒杀券
+        refresh();
+        for (Long voucherId : vouchers.keySet()) {
+            if (!hasStock(voucherId)) {
+                markStockMissing(voucherId);
+            }
+        }
+        log.info("预加载秒杀券 {} 张，库存未加载 {} 张", vouchers.size(), stockMissingUntil.size());
+        refreshExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                log.error("刷新秒杀券本地缓存失败", e);
+            }
+        }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        refreshExecutor.shutdownNow();
+    }
+
+    // 用数据库中未结束的秒杀券替换本地缓存，移除已结束或已删除的秒杀券
+    private void refresh() {
+        List<SecKillVoucher> list = seckillVoucherService.query().gt("end_time", LocalDateTime.now()).list();
+        Set<Long> active = new HashSet<>();
+        for (SecKillVoucher voucher : list) {
+            active.add(voucher.getVoucherId());
+            vouchers.put(voucher.getVoucherId(), voucher);
+        }
+        vouchers.keySet().retainAll(active);
+    }
+
+    private boolean hasStock(Long voucherId) {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(seckillStockShards.stockKey(voucherId, 0)));
+    }
+
+    public void put(SecKillVoucher voucher) {
+        vouchers.put(voucher.getVoucherId(), voucher);
+        missingVouchers.remove(voucher.getVoucherId());
+        stockMissingUntil.remove(voucher.getVoucherId());
+    }
+
+    // 本地未命中时（秒杀券可能由其他实例新增）先检查 Redis 中是否有库存 key，有库存 key 才查询数据库，
+    // 避免不存在的 id 打到数据库；不存在的秒杀券短时间缓存为空
+    public SecKillVoucher get(Long voucherId) {
+        SecKillVoucher voucher = vouchers.get(voucherId);
+        if (voucher != null) {
+            return voucher;
+        }
+        if (missingVouchers.containsKey(voucherId)) {
+            return null;
+        }
+        if (!hasStock(voucherId)) {
+            // 库存可能稍后由预热加载，只短时间缓存
+            missingVouchers.put(voucherId, Boolean.TRUE, STOCK_RETRY_MILLIS);
+            return null;
+        }
+        voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            missingVouchers.put(voucherId, Boolean.TRUE);
+            return null;
+        }
+        vouchers.put(voucherId, voucher);
+        return voucher;
+    }
+
+    public void markStockMissing(Long voucherId) {
+        stockMissingUntil.put(voucherId, System.currentTimeMillis() + STOCK_RETRY_MILLIS);
+    }
+
+    public void markStockLoaded(Long voucherId) {
+        stockMissingUntil.remove(voucherId);
+    }
+
+    public boolean isStockMissing(Long voucherId) {
+        Long until = stockMissingUntil.get(voucherId);
+        if (until == null) {
+            return false;
+        }
+        if (until > System.currentTimeMillis()) {
+            return true;
+        }
+        // 到期，放行当前请求到 Redis 重新探测，其余请求在下一个探测周期内继续拒绝
+        return !stockMissingUntil.replace(voucherId, until, System.currentTimeMillis() + STOCK_RETRY_MILLIS);
+    }
+}
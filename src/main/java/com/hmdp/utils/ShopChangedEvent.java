@@ -0,0 +1,13 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 商铺数据变更事件，事务提交后由监听器原地刷新缓存（本地模拟 binlog / CDC 变更事件）
+ */
+@Data
+@AllArgsConstructor
+public class ShopChangedEvent {
+    private Long id;
+}
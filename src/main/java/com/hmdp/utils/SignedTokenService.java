@@ -0,0 +1,228 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 无状态的签名登录令牌：令牌中携带 UserDTO 的字段与过期时间，使用 HMAC-SHA256 签名，
+ * 拦截器在本地验证签名即可得到登录用户，无需为每个会话在 Redis 中保存 hash。
+ * 格式为 base64url(数据).base64url(签名)，数据为 版本号、过期时间、用户 id、昵称、头像 按顺序写入的二进制。
+ * 登出的令牌以签名为成员、过期时间为分数写入 Redis 的吊销集合（login:revoked），令牌过期后从集合中清除，
+ * 因此集合只包含尚未过期的已吊销令牌。每个实例在本地保存该集合的副本，通过发布订阅增量更新并定时全量同步。
+ */
+@Slf4j
+@Component
+public class SignedTokenService {
+    private static final byte VERSION = 1;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 登录方式：redis（Redis 保存会话）/ signed（签名令牌）
+    @Value("${hmdp.login.mode:redis}")
+    private String mode;
+
+    // 所有实例必须使用相同的密钥
+    @Value("${hmdp.login.signed.secret:}")
+    private String secret;
+
+    @Value("${hmdp.login.signed.ttl-minutes:36000}")
+    private long ttlMinutes;
+
+    @Value("${hmdp.login.signed.revocation-sync-seconds:60}")
+    private long revocationSyncSeconds;
+
+    private SecretKeySpec key;
+    private ThreadLocal<Mac> macs;
+
+    // 已吊销令牌的签名 -> 令牌过期时间
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor(
+            ThreadUtil.newNamedThreadFactory("login-revocation-sync-", true)
+    );
+
+    @PostConstruct
+    private void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        if (StrUtil.isBlank(secret)) {
+            throw new IllegalStateException("hmdp.login.signed.secret is required when hmdp.login.mode is signed");
+        }
+        key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int i = body.indexOf(':');
+            revoked.put(body.substring(i + 1), Long.valueOf(body.substring(0, i)));
+        }, new ChannelTopic(LOGIN_REVOKED_CHANNEL));
+        syncExecutor.scheduleWithFixedDelay(this::syncRevoked, 0, revocationSyncSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        syncExecutor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return "signed".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * 判断是否为签名令牌（Redis 会话的 token 是不含 . 的 UUID）
+     */
+    public boolean isSigned(String token) {
+        return isEnabled() && token.indexOf('.') > 0;
+    }
+
+    public String issue(UserDTO user) {
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(ttlMinutes);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(expireAt);
+            out.writeLong(user.getId());
+            out.writeUTF(StrUtil.nullToEmpty(user.getNickName()));
+            out.writeUTF(StrUtil.nullToEmpty(user.getIcon()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(macs.get().doFinal(payload));
+    }
+
+    /**
+     * 验证令牌的签名、过期时间与吊销状态，有效时返回令牌中的用户，否则返回 null
+     */
+    public UserDTO verify(String token) {
+        if (revoked.containsKey(signatureOf(token))) {
+            return null;
+        }
+        Claims claims = parse(token);
+        return claims == null ? null : claims.user;
+    }
+
+    /**
+     * 吊销令牌，直到令牌过期前所有实例都会拒绝该令牌。无效的令牌无需吊销，直接忽略
+     */
+    public void revoke(String token) {
+        Claims claims = parse(token);
+        if (claims == null) {
+            return;
+        }
+        String signature = signatureOf(token);
+        revoked.put(signature, claims.expireAt);
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, signature, claims.expireAt);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKED_CHANNEL, claims.expireAt + ":" + signature);
+    }
+
+    private static String signatureOf(String token) {
+        return token.substring(token.indexOf('.') + 1);
+    }
+
+    private static class Claims {
+        private final UserDTO user;
+        private final long expireAt;
+
+        private Claims(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = expireAt;
+        }
+    }
+
+    // 校验签名与过期时间并解析数据，不检查吊销状态
+    private Claims parse(String token) {
+        int dot = token.indexOf('.');
+        try {
+            byte[] payload = decode(token.substring(0, dot));
+            if (!MessageDigest.isEqual(macs.get().doFinal(payload), decode(token.substring(dot + 1)))) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            long expireAt = in.readLong();
+            if (expireAt < System.currentTimeMillis()) {
+                return null;
+            }
+            UserDTO user = new UserDTO();
+            user.setId(in.readLong());
+            user.setNickName(StrUtil.emptyToNull(in.readUTF()));
+            user.setIcon(StrUtil.emptyToNull(in.readUTF()));
+            return new Claims(user, expireAt);
+        } catch (IllegalArgumentException | IOException e) {
+            // base64 或数据格式错误
+            return null;
+        }
+    }
+
+    // 只接受规范的 base64url 编码。解码器会忽略最后一个字符中多余的低位，
+    // 若不拒绝，修改末尾字符即可得到签名相同但字符串不同的令牌，从而绕过按签名字符串记录的吊销
+    private static byte[] decode(String part) {
+        byte[] bytes = DECODER.decode(part);
+        if (!ENCODER.encodeToString(bytes).equals(part)) {
+            throw new IllegalArgumentException("non-canonical base64url");
+        }
+        return bytes;
+    }
+
+    // 清除已过期的吊销记录，并从 Redis 全量同步，弥补发布订阅可能丢失的消息
+    private void syncRevoked() {
+        try {
+            long now = System.currentTimeMillis();
+            revoked.values().removeIf(expireAt -> expireAt < now);
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, Double.NEGATIVE_INFINITY, now);
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(LOGIN_REVOKED_KEY, now, Double.POSITIVE_INFINITY);
+            if (tuples != null) {
+                for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                    revoked.put(tuple.getValue(), tuple.getScore().longValue());
+                }
+            }
+        } catch (Exception e) {
+            log.error("同步已吊销的登录令牌失败", e);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+-- 为已有数据库的 tb_voucher_order 添加按优惠券查询已下单用户的索引
+-- 秒杀库存预热按 voucher_id 读取未结束秒杀券的订单，缺少该索引时每张秒杀券都会扫描整张订单表；新建的数据库（hmdp.sql）已包含该索引
+
+-- 索引已存在时报错 Duplicate key name，可以忽略
+ALTER TABLE `tb_voucher_order` ADD INDEX `idx_voucher_user`(`voucher_id`, `user_id`) USING BTREE;
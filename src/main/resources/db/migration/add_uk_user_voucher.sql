@@ -0,0 +1,11 @@
+-- 为已有数据库的 tb_voucher_order 添加一人一单唯一索引
+-- hmdp.seckill.order.consistency=unique-index 依赖该索引，缺少时应用启动失败；新建的数据库（hmdp.sql）已包含该索引
+
+-- 1. 检查已有的重复订单。有结果时需要先人工处理（取消或退款）多余的订单，否则第 2 步会失败
+SELECT `user_id`, `voucher_id`, COUNT(*) AS `cnt`, GROUP_CONCAT(`id`) AS `order_ids`
+FROM `tb_voucher_order`
+GROUP BY `user_id`, `voucher_id`
+HAVING `cnt` > 1;
+
+-- 2. 添加唯一索引（索引已存在时报错 Duplicate key name，可以忽略）
+ALTER TABLE `tb_voucher_order` ADD UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE;
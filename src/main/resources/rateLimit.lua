@@ -0,0 +1,25 @@
+-- 令牌桶限流：KEYS[1] 令牌桶的 hash，ARGV[1] 容量，ARGV[2] 每秒生成的令牌数
+-- 返回 1 表示取得令牌，0 表示拒绝
+-- 使用 Redis 的 TIME 作为时钟，避免各实例时钟不一致，需要 Redis 5 及以上版本（脚本按效果复制）
+local capacity = tonumber(ARGV[1])
+local rate = tonumber(ARGV[2])
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local bucket = redis.call('hmget', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(bucket[1])
+local ts = tonumber(bucket[2])
+if tokens == nil or ts == nil then
+    tokens = capacity
+    ts = now
+end
+-- 按距上次请求的时间补充令牌
+tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate / 1000)
+local allowed = 0
+if tokens >= 1 then
+    tokens = tokens - 1
+    allowed = 1
+end
+redis.call('hset', KEYS[1], 'tokens', tokens, 'ts', now)
+-- 令牌桶补满后即可删除
+redis.call('pexpire', KEYS[1], math.ceil(capacity / rate * 1000))
+return allowed
@@ -4,30 +4,54 @@
 --- DateTime: 2025/1/17 13:24
 ---
 
--- 传入的参数 - 优惠券 id、用户 id 与订单 id
+-- 库存 key、已下单用户 key、订单消息队列 key 与订单序列号计数器 key（分片模式下均位于同一分片）
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local streamKey = KEYS[3]
+local counterKey = KEYS[4]
+
+-- 传入的参数 - 优惠券 id、用户 id、订单 id 的时间戳部分、序列号步长与偏移（分片数与分片号）、库存不足时是否占位、
+-- 已在本地分配的序列号（-1 表示由计数器分配）、计数器分配的序列号的基数
 local voucherId = ARGV[1]
 local userId = ARGV[2]
-local orderId = ARGV[3]
-
--- 库存 key 与订单 key
-local stockKey = "seckill:stock:" .. voucherId
-local orderKey = "seckill:order:" .. voucherId
+local timestamp = ARGV[3]
+local seqStride = tonumber(ARGV[4])
+local seqOffset = tonumber(ARGV[5])
+local claimOnEmpty = ARGV[6]
+local seq = tonumber(ARGV[7])
+local seqBase = tonumber(ARGV[8])
 
 -- 脚本业务
+-- 库存 key 不存在（未预热或 Redis 数据丢失），返回 4
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil) then
+    return {4}
+end
 -- 判断库存是否充足
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 库存不足，返回 1
-    return 1
+if(stock <= 0) then
+    if(claimOnEmpty ~= '1') then
+        -- 库存不足，返回 1
+        return {1}
+    end
+    -- 分片模式下本分片库存不足，先在本分片占位保证一人一单，再由调用方尝试其他分片
+    if(redis.call('sadd', orderKey, userId) == 0) then
+        return {2}
+    end
+    return {3}
 end
 -- 判断用户是否下单
 if(redis.call('sismember', orderKey, userId) == 1) then
     -- 存在则说明是重复下单，返回2
-    return 2
+    return {2}
 end
 -- 扣库存，保存用户
 redis.call('incrby', stockKey, -1)
 redis.call('sadd', orderKey, userId)
+-- 获得资格后才分配订单 id 的序列号，订单 id 由时间戳与序列号拼接
+if(seq < 0) then
+    seq = seqBase + redis.call('incr', counterKey) * seqStride + seqOffset
+end
 -- 发送消息到消息队列中
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'timestamp', timestamp, 'seq', seq)
 
-return 0
+return {0, seq}
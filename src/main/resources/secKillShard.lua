@@ -0,0 +1,26 @@
+-- 分片模式下，用户所属分片库存不足时，从其他分片扣减库存
+-- 一人一单已经由用户所属分片的占位保证，这里只扣库存并发送订单消息
+local stockKey = KEYS[1]
+local streamKey = KEYS[2]
+local counterKey = KEYS[3]
+
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local timestamp = ARGV[3]
+local seqStride = tonumber(ARGV[4])
+local seqOffset = tonumber(ARGV[5])
+local seq = tonumber(ARGV[6])
+local seqBase = tonumber(ARGV[7])
+
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil or stock <= 0) then
+    -- 本分片库存不足或库存 key 不存在，返回 1
+    return {1}
+end
+redis.call('incrby', stockKey, -1)
+if(seq < 0) then
+    seq = seqBase + redis.call('incr', counterKey) * seqStride + seqOffset
+end
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'timestamp', timestamp, 'seq', seq)
+
+return {0, seq}
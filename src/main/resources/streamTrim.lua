@@ -0,0 +1,3 @@
+-- 修剪订单消息队列：XTRIM key MINID ~ id 或 XTRIM key MAXLEN ~ n，返回删除的消息数量
+-- MINID 需要 Redis 6.2 及以上版本
+return redis.call('xtrim', KEYS[1], ARGV[1], '~', ARGV[2])
@@ -0,0 +1,40 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdminInterceptorTest {
+
+    private static boolean allowed(AdminInterceptor interceptor, String header) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (header != null) {
+            request.addHeader("X-Admin-Token", header);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        boolean allowed = interceptor.preHandle(request, response, null);
+        assertEquals(allowed ? 200 : 403, response.getStatus());
+        return allowed;
+    }
+
+    @Test
+    void allowsMatchingToken() {
+        assertTrue(allowed(new AdminInterceptor("s3cret"), "s3cret"));
+    }
+
+    @Test
+    void rejectsMissingOrWrongToken() {
+        AdminInterceptor interceptor = new AdminInterceptor("s3cret");
+        assertFalse(allowed(interceptor, null));
+        assertFalse(allowed(interceptor, "s3cre"));
+        assertFalse(allowed(interceptor, ""));
+    }
+
+    @Test
+    void rejectsEverythingWhenTokenIsNotConfigured() {
+        assertFalse(allowed(new AdminInterceptor(""), ""));
+        assertFalse(allowed(new AdminInterceptor(null), "anything"));
+    }
+}
@@ -0,0 +1,91 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Follow;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCacheCodecTest {
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    @Test
+    void roundTripsShopWithLogicalExpire() {
+        LocalDateTime time = now();
+        Shop shop = new Shop()
+                .setId(1L)
+                .setName("茶餐厅")
+                .setTypeId(2L)
+                .setImages("a.jpg,b.jpg")
+                .setArea("大关")
+                .setAddress("金华路 1 号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(time.minusDays(1))
+                .setUpdateTime(time);
+        LocalDateTime expire = time.plusMinutes(30);
+
+        RedisDataWithExpire data = codec.decode(codec.encode(shop, expire), Shop.class);
+
+        assertEquals(shop, data.getData());
+        assertEquals(expire, data.getExpire());
+    }
+
+    @Test
+    void roundTripsNullFields() {
+        Shop shop = new Shop().setId(1L);
+
+        RedisDataWithExpire data = codec.decode(codec.encode(shop, null), Shop.class);
+
+        assertEquals(shop, data.getData());
+        assertNull(data.getExpire());
+    }
+
+    @Test
+    void roundTripsShopTypeAndUser() {
+        ShopType type = new ShopType().setId(1L).setName("美食").setIcon("/types/ms.png").setSort(1);
+        assertEquals(type, codec.decode(codec.encode(type, null), ShopType.class).getData());
+
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("可可今天不吃肉");
+        assertEquals(user, codec.decode(codec.encode(user, null), UserDTO.class).getData());
+    }
+
+    @Test
+    void fallsBackToJsonForUnregisteredTypes() {
+        Follow follow = new Follow().setId(1L).setUserId(2L).setFollowUserId(3L);
+        LocalDateTime expire = now();
+
+        RedisDataWithExpire data = codec.decode(codec.encode(follow, expire), Follow.class);
+
+        assertEquals(follow, data.getData());
+        assertEquals(expire, data.getExpire());
+    }
+
+    @Test
+    void decodesValuesWrittenByJsonCodec() {
+        ShopType type = new ShopType().setId(1L).setName("美食").setSort(1);
+        LocalDateTime expire = now();
+        byte[] json = new JsonCacheCodec().encode(type, expire);
+
+        RedisDataWithExpire data = codec.decode(json, ShopType.class);
+
+        assertEquals(type, data.getData());
+        assertEquals(expire, data.getExpire());
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdBloomFilterTest {
+
+    @Test
+    void allowsEverythingBeforeReady() {
+        IdBloomFilter filter = new IdBloomFilter(1000, 0.01);
+        assertTrue(filter.mightContain("1"));
+        filter.markReady();
+        assertFalse(filter.mightContain("1"));
+    }
+
+    @Test
+    void hasNoFalseNegatives() {
+        IdBloomFilter filter = new IdBloomFilter(10000, 0.01);
+        for (int i = 1; i <= 10000; i++) {
+            filter.add(String.valueOf(i));
+        }
+        filter.markReady();
+        for (int i = 1; i <= 10000; i++) {
+            assertTrue(filter.mightContain(String.valueOf(i)), "id " + i);
+        }
+    }
+
+    @Test
+    void falsePositiveRateIsCloseToConfigured() {
+        IdBloomFilter filter = new IdBloomFilter(10000, 0.01);
+        for (int i = 1; i <= 10000; i++) {
+            filter.add(String.valueOf(i));
+        }
+        filter.markReady();
+        int falsePositives = 0;
+        for (int i = 10001; i <= 110000; i++) {
+            if (filter.mightContain(String.valueOf(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2000, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void duplicateAddsAreNotCounted() {
+        IdBloomFilter filter = new IdBloomFilter(2, 0.01);
+        filter.add("1");
+        filter.add("1");
+        assertEquals(1L, filter.stats().get("insertions"));
+        assertFalse(filter.isFull());
+        filter.add("2");
+        assertTrue(filter.isFull());
+    }
+}
@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitInterceptorTest {
+
+    private static MockHttpServletRequest request(String remoteAddr, String forwarded) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddr);
+        if (forwarded != null) {
+            request.addHeader("X-Forwarded-For", forwarded);
+        }
+        return request;
+    }
+
+    @Test
+    void ignoresForwardedHeaderWithoutTrustedProxies() {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(null, Collections.emptyList());
+        assertEquals("203.0.113.7", interceptor.clientIp(request("203.0.113.7", "1.2.3.4")));
+    }
+
+    @Test
+    void ignoresForwardedHeaderFromUntrustedPeer() {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(null, Collections.singletonList("10.0.0.0/8"));
+        assertEquals("203.0.113.7", interceptor.clientIp(request("203.0.113.7", "1.2.3.4")));
+    }
+
+    @Test
+    void takesRightMostUntrustedHop() {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(null, Arrays.asList("10.0.0.0/8", "192.168.1.1"));
+        // 客户端伪造的第一个地址被忽略
+        assertEquals("198.51.100.2",
+                interceptor.clientIp(request("10.0.0.5", "1.2.3.4, 198.51.100.2, 192.168.1.1")));
+    }
+
+    @Test
+    void fallsBackToLeftMostHopWhenAllAreTrusted() {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor(null, Collections.singletonList("10.0.0.0/8"));
+        assertEquals("10.1.1.1", interceptor.clientIp(request("10.0.0.5", "10.1.1.1, 10.2.2.2")));
+        assertEquals("10.0.0.5", interceptor.clientIp(request("10.0.0.5", null)));
+    }
+}
@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisIDGeneratorTest {
+
+    @Test
+    void composePutsTimestampInHighBitsAndSequenceInLowBits() {
+        assertEquals((5L << 32) | 7L, RedisIDGenerator.compose(5, 7));
+        assertTrue(RedisIDGenerator.compose((1L << 31) - 1, (1L << 32) - 1) > 0);
+    }
+
+    @Test
+    void composeWrapsSequenceWithinItsBits() {
+        assertEquals(RedisIDGenerator.compose(5, 0), RedisIDGenerator.compose(5, 1L << 32));
+    }
+
+    @Test
+    void timestampOfReturnsComposedTimestamp() {
+        assertEquals(123456L, RedisIDGenerator.timestampOf(RedisIDGenerator.compose(123456, 99)));
+        long max = (1L << 31) - 1;
+        assertEquals(max, RedisIDGenerator.timestampOf(RedisIDGenerator.compose(max, (1L << 32) - 1)));
+    }
+
+    @Test
+    void sequenceOfReturnsComposedSequence() {
+        assertEquals(42L, RedisIDGenerator.sequenceOf(RedisIDGenerator.compose(1000, 42)));
+        long scriptSeq = RedisIDGenerator.SCRIPT_SEQUENCE_BASE + 7;
+        assertEquals(scriptSeq, RedisIDGenerator.sequenceOf(RedisIDGenerator.compose(1000, scriptSeq)));
+    }
+
+    @Test
+    void scriptAndNextIdSequencesDoNotCollide() {
+        long timestamp = 1000;
+        int shards = 4;
+        Set<Long> ids = new HashSet<>();
+        // nextID 的计数器与各分片计数器在同一秒内各自从 1 开始自增
+        for (long cnt = 1; cnt <= 10000; cnt++) {
+            assertTrue(ids.add(RedisIDGenerator.compose(timestamp, cnt)));
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            for (long cnt = 1; cnt <= 2500; cnt++) {
+                long seq = RedisIDGenerator.SCRIPT_SEQUENCE_BASE + cnt * shards + shard;
+                assertTrue(ids.add(RedisIDGenerator.compose(timestamp, seq)), "seq " + seq);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SeckillOrderConsumerTest {
+    private SeckillOrderConsumer consumer;
+
+    @BeforeEach
+    void setUp() {
+        consumer = new SeckillOrderConsumer();
+        ReflectionTestUtils.setField(consumer, "pauseLatencyMillis", 500L);
+        ReflectionTestUtils.setField(consumer, "pausePoolWaiters", 5);
+        ReflectionTestUtils.setField(consumer, "pauseMillis", 1000L);
+        setState(SeckillOrderConsumer.State.RUNNING);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setState(SeckillOrderConsumer.State state) {
+        ((AtomicReference<SeckillOrderConsumer.State>) ReflectionTestUtils.getField(consumer, "state")).set(state);
+    }
+
+    private void expirePause() {
+        ReflectionTestUtils.setField(consumer, "pausedUntil", System.currentTimeMillis() - 1);
+    }
+
+    @Test
+    void pausesWhenWriteLatencyIsHigh() {
+        consumer.recordWriteLatency(400);
+        assertFalse(consumer.shouldPause());
+        for (int i = 0; i < 20; i++) {
+            consumer.recordWriteLatency(2000);
+        }
+        assertTrue(consumer.shouldPause());
+        assertEquals(SeckillOrderConsumer.State.PAUSED, consumer.state());
+        // 暂停期间保持暂停
+        assertTrue(consumer.shouldPause());
+    }
+
+    @Test
+    void resumesAfterPauseWithoutNewBatches() {
+        for (int i = 0; i < 20; i++) {
+            consumer.recordWriteLatency(2000);
+        }
+        assertTrue(consumer.shouldPause());
+        expirePause();
+        // 暂停期间没有批次写入，暂停结束后不能因为旧的延迟再次暂停
+        assertFalse(consumer.shouldPause());
+        assertEquals(SeckillOrderConsumer.State.RUNNING, consumer.state());
+    }
+
+    @Test
+    void pausesAgainWhenFirstBatchAfterResumeIsSlow() {
+        for (int i = 0; i < 20; i++) {
+            consumer.recordWriteLatency(2000);
+        }
+        assertTrue(consumer.shouldPause());
+        expirePause();
+        assertFalse(consumer.shouldPause());
+        // 恢复后第一批直接作为新的延迟
+        consumer.recordWriteLatency(2000);
+        assertTrue(consumer.shouldPause());
+    }
+
+    @Test
+    void pauseDoesNotOverwriteStopping() {
+        setState(SeckillOrderConsumer.State.STOPPING);
+        for (int i = 0; i < 20; i++) {
+            consumer.recordWriteLatency(2000);
+        }
+        assertTrue(consumer.shouldPause());
+        assertEquals(SeckillOrderConsumer.State.STOPPING, consumer.state());
+        expirePause();
+        assertFalse(consumer.shouldPause());
+        assertEquals(SeckillOrderConsumer.State.STOPPING, consumer.state());
+        assertFalse(consumer.isRunning());
+    }
+
+    private void prepareStart(int count, int poolMaxActive) {
+        SeckillStockShards shards = mock(SeckillStockShards.class);
+        when(shards.streamKeys()).thenReturn(Collections.singletonList("stream.orders"));
+        ReflectionTestUtils.setField(consumer, "seckillStockShards", shards);
+        ReflectionTestUtils.setField(consumer, "stringRedisTemplate", mock(StringRedisTemplate.class, RETURNS_DEEP_STUBS));
+        ReflectionTestUtils.setField(consumer, "instanceId", "test");
+        ReflectionTestUtils.setField(consumer, "consumerCount", count);
+        ReflectionTestUtils.setField(consumer, "redisPoolMaxActive", poolMaxActive);
+        ReflectionTestUtils.setField(consumer, "blockMillis", 10L);
+        ReflectionTestUtils.setField(consumer, "shutdownTimeoutMillis", 1000L);
+        setState(SeckillOrderConsumer.State.STOPPED);
+    }
+
+    @Test
+    void rejectsMoreConsumersThanHalfTheRedisPool() {
+        prepareStart(4, 6);
+        assertThrows(IllegalStateException.class, consumer::start);
+        assertEquals(SeckillOrderConsumer.State.STOPPED, consumer.state());
+    }
+
+    @Test
+    void canStartAgainAfterStop() {
+        prepareStart(1, 8);
+        consumer.start();
+        consumer.stop();
+        assertEquals(SeckillOrderConsumer.State.STOPPED, consumer.state());
+        consumer.start();
+        assertTrue(consumer.isRunning());
+        consumer.stop();
+    }
+}
@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import com.hmdp.utils.SeckillOrderStatus.Status;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeckillOrderStatusTest {
+    private static final long RECENT_ORDER = RedisIDGenerator.compose(RedisIDGenerator.timestamp(LocalDateTime.now()), 1);
+    private static final long OLD_ORDER = RedisIDGenerator.compose(RedisIDGenerator.timestamp(LocalDateTime.now().minusDays(1)), 1);
+
+    @Test
+    void ownerSeesTheResult() {
+        assertEquals(Status.CREATED, SeckillOrderStatus.toStatus(RECENT_ORDER, Status.CREATED.ordinal() + ":1010", 1010L));
+        assertEquals(Status.DUPLICATE, SeckillOrderStatus.toStatus(OLD_ORDER, Status.DUPLICATE.ordinal() + ":1010", 1010L));
+    }
+
+    @Test
+    void otherUsersSeeTheSameAsAMissingOrder() {
+        String value = Status.CREATED.ordinal() + ":1010";
+        assertEquals(Status.PENDING, SeckillOrderStatus.toStatus(RECENT_ORDER, value, 1011L));
+        assertEquals(Status.UNKNOWN, SeckillOrderStatus.toStatus(OLD_ORDER, value, 1011L));
+        // 不能通过用户 id 的前缀匹配
+        assertEquals(Status.PENDING, SeckillOrderStatus.toStatus(RECENT_ORDER, value, 101L));
+    }
+
+    @Test
+    void missingResultIsPendingWithinRetention() {
+        assertEquals(Status.PENDING, SeckillOrderStatus.toStatus(RECENT_ORDER, null, 1010L));
+        assertEquals(Status.UNKNOWN, SeckillOrderStatus.toStatus(OLD_ORDER, null, 1010L));
+    }
+}
@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Base64;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SignedTokenServiceTest {
+    private StringRedisTemplate stringRedisTemplate;
+    private SignedTokenService service;
+
+    private SignedTokenService newService(String secret, long ttlMinutes) {
+        SignedTokenService service = new SignedTokenService();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(service, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(service, "mode", "signed");
+        ReflectionTestUtils.setField(service, "secret", secret);
+        ReflectionTestUtils.setField(service, "ttlMinutes", ttlMinutes);
+        ReflectionTestUtils.setField(service, "revocationSyncSeconds", 3600L);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        return service;
+    }
+
+    private static UserDTO user() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("可可今天不吃肉");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        return user;
+    }
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class, RETURNS_DEEP_STUBS);
+        service = newService("test-secret", 60);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(service, "destroy");
+    }
+
+    @Test
+    void verifiesIssuedToken() {
+        String token = service.issue(user());
+
+        assertTrue(service.isSigned(token));
+        assertEquals(user(), service.verify(token));
+    }
+
+    @Test
+    void keepsNullFieldsNull() {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+
+        assertEquals(user, service.verify(service.issue(user)));
+    }
+
+    @Test
+    void doesNotTreatSessionTokensAsSigned() {
+        assertFalse(service.isSigned("5f0c2ae8d1b74b0a9a3c1f7e2b4d6a81"));
+    }
+
+    @Test
+    void rejectsTamperedPayload() {
+        String token = service.issue(user());
+        int dot = token.indexOf('.');
+        byte[] payload = Base64.getUrlDecoder().decode(token.substring(0, dot));
+        // 修改用户 id 的最后一个字节
+        payload[16] ^= 1;
+        String tampered = Base64.getUrlEncoder().withoutPadding().encodeToString(payload) + token.substring(dot);
+
+        assertNull(service.verify(tampered));
+    }
+
+    @Test
+    void rejectsTokenSignedWithAnotherSecret() {
+        SignedTokenService other = newService("another-secret", 60);
+        try {
+            assertNull(service.verify(other.issue(user())));
+        } finally {
+            ReflectionTestUtils.invokeMethod(other, "destroy");
+        }
+    }
+
+    @Test
+    void rejectsExpiredToken() {
+        SignedTokenService expired = newService("test-secret", -1);
+        try {
+            assertNull(service.verify(expired.issue(user())));
+        } finally {
+            ReflectionTestUtils.invokeMethod(expired, "destroy");
+        }
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        assertNull(service.verify("not-base64!.sig"));
+        assertNull(service.verify(".abc"));
+        assertNull(service.verify("abc."));
+    }
+
+    @Test
+    void rejectsRevokedTokenAndPublishesRevocation() {
+        String token = service.issue(user());
+
+        service.revoke(token);
+
+        assertNull(service.verify(token));
+        String signature = token.substring(token.indexOf('.') + 1);
+        verify(stringRedisTemplate.opsForZSet()).add(eq(LOGIN_REVOKED_KEY), eq(signature), anyDouble());
+        verify(stringRedisTemplate).convertAndSend(eq(LOGIN_REVOKED_CHANNEL), endsWith(":" + signature));
+        // 32 字节的签名编码为 43 个字符，最后一个字符的低 2 位不参与解码
+        char last = token.charAt(token.length() - 1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        char variantLast = alphabet.charAt(alphabet.indexOf(last) ^ 1);
+        String variant = token.substring(0, token.length() - 1) + variantLast;
+        assertArrayEquals(Base64.getUrlDecoder().decode(signature),
+                Base64.getUrlDecoder().decode(variant.substring(variant.indexOf('.') + 1)));
+        assertNull(service.verify(variant));
+    }
+
+    @Test
+    void requiresSecretInSignedMode() {
+        assertThrows(IllegalStateException.class, () -> newService("", 60));
+    }
+}